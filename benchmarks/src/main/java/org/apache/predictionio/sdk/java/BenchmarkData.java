@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Events and queries shaped like typical PredictionIO traffic, shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Returns a rate event with a few properties.
+   */
+  static Event event(int i) {
+    return new Event()
+        .event("rate")
+        .entityType("user")
+        .entityId("u" + i)
+        .targetEntityType("item")
+        .targetEntityId("i" + (i * 31 % 1000))
+        .property("rating", 1 + i % 5)
+        .property("categories", Arrays.asList("c1", "c2", "c3"))
+        .property("comment", "fast delivery, would buy again")
+        .eventTime(new DateTime(2018, 4, 1, 12, 0, i % 60, DateTimeZone.UTC));
+  }
+
+  /**
+   * Returns a full batch of events.
+   */
+  static List<Event> batch() {
+    List<Event> events = new ArrayList<>(EventBatcher.MAX_BATCH_SIZE);
+    for (int i = 0; i < EventBatcher.MAX_BATCH_SIZE; i++) {
+      events.add(event(i));
+    }
+    return events;
+  }
+
+  /**
+   * Returns a recommendation query.
+   */
+  static Map<String, Object> query() {
+    Map<String, Object> query = new HashMap<>();
+    query.put("user", "u42");
+    query.put("num", 10);
+    query.put("categories", Arrays.asList("c1", "c2"));
+    query.put("blackList", Arrays.asList("i1", "i2", "i3"));
+    return query;
+  }
+
+  /**
+   * Returns a response to {@link #query()}.
+   */
+  static String queryResponse() {
+    StringBuilder json = new StringBuilder("{\"itemScores\":[");
+    for (int i = 0; i < 10; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"item\":\"i").append(i).append("\",\"score\":").append(10.0 / (i + 1))
+          .append('}');
+    }
+    return json.append("]}").toString();
+  }
+}
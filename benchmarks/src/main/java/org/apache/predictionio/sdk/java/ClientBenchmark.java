@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end {@link EventClient} and {@link EngineClient} calls against an in-process {@link
+ * StubServer}, from request encoding to response parsing, with each {@link Transport}. The
+ * {@code memory} transport skips HTTP and so measures the client alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ClientBenchmark {
+
+  @Param({"netty", "urlconnection", "memory"})
+  public String transport;
+
+  private StubServer server;
+  private EventClient eventClient;
+  private EngineClient engineClient;
+  private Event event;
+  private List<Event> batch;
+  private Map<String, Object> query;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new StubServer();
+    eventClient = new EventClient("key", server.getUrl(), 4);
+    engineClient = new EngineClient(server.getUrl(), 4);
+    eventClient.setTransport(newTransport());
+    engineClient.setTransport(newTransport());
+    event = BenchmarkData.event(7);
+    batch = BenchmarkData.batch();
+    query = BenchmarkData.query();
+  }
+
+  private Transport newTransport() {
+    switch (transport) {
+      case "urlconnection":
+        return new UrlConnectionTransport(4, 5000);
+      case "memory":
+        return new InMemoryTransport(server.inMemoryHandler());
+      default:
+        return new AsyncHttpTransport(4, 5000);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    eventClient.close();
+    engineClient.close();
+    server.stop();
+  }
+
+  @Benchmark
+  public String createEvent() throws ExecutionException, InterruptedException, IOException {
+    return eventClient.createEvent(event);
+  }
+
+  @Benchmark
+  public List<String> createEvents()
+      throws ExecutionException, InterruptedException, IOException {
+    return eventClient.createEvents(batch);
+  }
+
+  @Benchmark
+  public JsonObject sendQuery() throws ExecutionException, InterruptedException, IOException {
+    return engineClient.sendQuery(query);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The client-side work of {@link EngineClient}: encoding a query, with and without the sorted
+ * keys used for caching and coalescing, and parsing the response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineQueryBenchmark {
+
+  private final JsonParser parser = new JsonParser();
+  private Map<String, Object> query;
+  private String response;
+
+  @Setup
+  public void setUp() {
+    query = BenchmarkData.query();
+    response = BenchmarkData.queryResponse();
+  }
+
+  @Benchmark
+  public byte[] encodeQuery() {
+    Utf8JsonWriter writer = Utf8JsonWriter.get();
+    writer.writeMap(query);
+    return writer.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] encodeQuerySorted() {
+    Utf8JsonWriter writer = Utf8JsonWriter.get();
+    writer.sortKeys();
+    writer.writeMap(query);
+    return writer.toByteArray();
+  }
+
+  @Benchmark
+  public JsonObject parseResponse() {
+    return parser.parse(response).getAsJsonObject();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to read a JSON lines export of 200,000 events with {@link EventFileReader}, on one
+ * decoding thread or on one per processor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventFileReaderBenchmark {
+
+  private static final int eventCount = 200000;
+
+  @Param({"1", "0"})
+  public int threads;
+
+  private File file;
+  private Event last;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    file = File.createTempFile("export", ".json");
+    FileExporter exporter = new FileExporter(file.getPath(), 65536,
+        FileExporter.SyncPolicy.NEVER);
+    for (int i = 0; i < eventCount; i++) {
+      exporter.createEvent(BenchmarkData.event(i));
+    }
+    exporter.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  @Benchmark
+  public long read() throws IOException {
+    int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    try (EventFileReader reader = new EventFileReader(file.getPath(), n, 1024 * 1024, true)) {
+      return reader.read(new EventFileReader.EventHandler() {
+        public void onEvent(Event event) {
+          last = event;
+        }
+      });
+    }
+  }
+}
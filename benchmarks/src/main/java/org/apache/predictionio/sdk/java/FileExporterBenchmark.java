@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link FileExporter#createEvent}, writing every event to the file, buffering JSON
+ * lines, or buffering the binary format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileExporterBenchmark {
+
+  @Param({"unbuffered", "buffered", "binary"})
+  public String mode;
+
+  private File file;
+  private FileExporter exporter;
+  private Map<String, Object> properties;
+  private DateTime eventTime;
+  private int i;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException {
+    file = File.createTempFile("export", ".json");
+    switch (mode) {
+      case "unbuffered":
+        exporter = new FileExporter(file.getPath());
+        break;
+      case "buffered":
+        exporter = new FileExporter(file.getPath(), 65536, FileExporter.SyncPolicy.NEVER);
+        break;
+      default:
+        exporter = new FileExporter(file.getPath(), 65536, FileExporter.SyncPolicy.NEVER,
+            FileExporter.Format.BINARY);
+    }
+    properties = new HashMap<>(BenchmarkData.event(0).getProperties());
+    eventTime = BenchmarkData.event(0).getEventTime();
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    exporter.close();
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  @Benchmark
+  public void createEvent() throws IOException {
+    i++;
+    exporter.createEvent("rate", "user", "u" + i, "item", "i" + (i % 1000), properties,
+        eventTime);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Event serialization: single events as in {@code Event.toJsonString} and {@code
+ * createEventAsFuture}, full batches as in {@code createEventsAsFuture}, and decoding as in {@code
+ * getEvent}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+  private final EventCodec codec = StreamingEventCodec.getInstance();
+  private Event event;
+  private List<Event> batch;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() {
+    event = BenchmarkData.event(7);
+    batch = BenchmarkData.batch();
+    encoded = codec.encode(event);
+  }
+
+  @Benchmark
+  public String toJsonString() {
+    return event.toJsonString();
+  }
+
+  @Benchmark
+  public byte[] encodeEvent() {
+    return codec.encode(event);
+  }
+
+  @Benchmark
+  public byte[] encodeBatch() {
+    return codec.encode(batch);
+  }
+
+  @Benchmark
+  public Event decodeEvent() throws IOException {
+    return codec.decode(encoded, 0, encoded.length);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process HTTP server answering the Event Server and engine endpoints with fixed responses, so
+ * client benchmarks measure the SDK rather than a real server. The same responses are available
+ * without HTTP through {@link #inMemoryHandler()}.
+ */
+final class StubServer {
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Map<String, Responder> responders = new HashMap<>();
+
+  StubServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+    executor = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("stub-server-%d")
+        .build());
+    server.setExecutor(executor);
+
+    StringBuilder batchResponse = new StringBuilder("[");
+    for (int i = 0; i < EventBatcher.MAX_BATCH_SIZE; i++) {
+      if (i > 0) {
+        batchResponse.append(',');
+      }
+      batchResponse.append("{\"status\":201,\"eventId\":\"e").append(i).append("\"}");
+    }
+    batchResponse.append(']');
+
+    responders.put("/events.json", new Responder(201, "{\"eventId\":\"e0\"}"));
+    responders.put("/batch/events.json", new Responder(200, batchResponse.toString()));
+    responders.put("/queries.json", new Responder(200, BenchmarkData.queryResponse()));
+    for (Map.Entry<String, Responder> responder : responders.entrySet()) {
+      server.createContext(responder.getKey(), responder.getValue());
+    }
+    server.start();
+  }
+
+  /**
+   * Returns a handler giving the same responses without HTTP, for {@link InMemoryTransport}.
+   */
+  InMemoryTransport.Handler inMemoryHandler() {
+    return new InMemoryTransport.Handler() {
+      public APIResponse handle(HttpRequest request) throws IOException {
+        Responder responder = responders.get(new URL(request.getUrl()).getPath());
+        if (responder == null) {
+          return new APIResponse(404, new byte[0], StandardCharsets.UTF_8);
+        }
+        return new APIResponse(responder.status, responder.body, StandardCharsets.UTF_8);
+      }
+    };
+  }
+
+  String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private static class Responder implements HttpHandler {
+    private final int status;
+    private final byte[] body;
+
+    Responder(int status, String body) {
+      this.status = status;
+      this.body = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try (InputStream in = exchange.getRequestBody()) {
+        ByteStreams.copy(in, ByteStreams.nullOutputStream());
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+}
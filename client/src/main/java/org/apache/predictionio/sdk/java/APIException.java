@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the API answers a request with an unexpected HTTP status.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class APIException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int status;
+  private final String responseMessage;
+
+  /**
+   * @param status HTTP status of the response
+   * @param responseMessage body of the response
+   */
+  public APIException(int status, String responseMessage) {
+    super(status + " " + responseMessage);
+    this.status = status;
+    this.responseMessage = responseMessage;
+  }
+
+  /**
+   * Returns the HTTP status of the response.
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Returns the body of the response, usually a JSON object with an error message.
+   */
+  public String getResponseMessage() {
+    return responseMessage;
+  }
+}
@@ -17,21 +17,60 @@
 
 package org.apache.predictionio.sdk.java;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 /**
  * API Response class for wrapping responses.
  *
+ * <p>Responses received by a client keep the body as bytes; it is decoded into a String on the
+ * first call to {@link #getMessage()}, so callers that only check the status never pay for it.
+ *
  * @version 0.8.3
  * @since 0.2
  */
 
 public class APIResponse {
 
+  private static final byte[] emptyBody = new byte[0];
+
   private int status;
-  private String message;
+  private volatile String message;
+  private volatile byte[] body;
+  private final Charset charset;
+  private final long receivedBytes;
 
   public APIResponse(int status, String message) {
     this.status = status;
     this.message = message;
+    this.charset = StandardCharsets.UTF_8;
+    this.receivedBytes = 0;
+  }
+
+  /**
+   * Creates a response received by a {@link Transport}.
+   *
+   * @param status HTTP status code
+   * @param body response body, not copied, or null if it was discarded
+   * @param charset charset of the body
+   * @since 0.13.1
+   */
+  public APIResponse(int status, byte[] body, Charset charset) {
+    this(status, body, charset, body != null ? body.length : 0);
+  }
+
+  /**
+   * @param receivedBytes number of body bytes received, including discarded ones
+   */
+  APIResponse(int status, byte[] body, Charset charset, long receivedBytes) {
+    this.status = status;
+    this.body = body != null ? body : emptyBody;
+    this.charset = charset;
+    this.receivedBytes = receivedBytes;
   }
 
   public int getStatus() {
@@ -42,11 +81,65 @@ public class APIResponse {
     this.status = status;
   }
 
+  /**
+   * Returns the response body as a String.
+   */
   public String getMessage() {
-    return this.message;
+    String message = this.message;
+    if (message == null && body != null) {
+      message = new String(body, charset);
+      this.message = message;
+    }
+    return message;
   }
 
   public void setMessage(String message) {
     this.message = message;
+    this.body = null;
+  }
+
+  /**
+   * Returns the response body as bytes, encoded as UTF-8 if the response was created from a
+   * String. The returned array is shared and must not be modified.
+   *
+   * @since 0.13.1
+   */
+  public byte[] getBody() {
+    byte[] body = this.body;
+    if (body == null) {
+      String message = this.message;
+      return message != null ? message.getBytes(charset) : emptyBody;
+    }
+    return body;
+  }
+
+  /**
+   * Returns a copy that shares the immutable body bytes but not the mutable fields.
+   */
+  APIResponse copy() {
+    byte[] body = this.body;
+    if (body == null) {
+      return new APIResponse(status, message);
+    }
+    return new APIResponse(status, body, charset, receivedBytes);
+  }
+
+  /**
+   * Returns the number of body bytes received, including discarded ones.
+   */
+  long getReceivedBytes() {
+    return receivedBytes;
+  }
+
+  /**
+   * Returns a reader over the response body, without decoding it into a String first.
+   */
+  Reader getReader() {
+    byte[] body = this.body;
+    if (body == null) {
+      String message = this.message;
+      return new StringReader(message != null ? message : "");
+    }
+    return new InputStreamReader(new ByteArrayInputStream(body), charset);
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.extra.ListenableFutureAdapter;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProvider;
+import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
+import com.ning.http.util.AsyncHttpProviderUtils;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+
+/**
+ * AsyncHttpTransport sends requests with Async HTTP Client and its Netty provider, which keeps
+ * a pool of connections and its own IO threads. This is the default transport.
+ *
+ * <p>HTTP/1.1 carries one request at a time per connection, so every request in flight needs a
+ * connection of its own. The IO threads, however, are independent of the connections: a few
+ * threads serve many connections, and one transport can be shared by several clients through a
+ * {@link SharedTransport}, so that they share one connection pool and one set of threads.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class AsyncHttpTransport implements Transport {
+
+  private final AsyncHttpClient client;
+  private final NioClientSocketChannelFactory channelFactory;
+
+  /**
+   * Creates a transport with as many IO threads as connections, up to the number of processors.
+   *
+   * @param maxConnections maximum number of connections per server
+   * @param timeoutMillis timeout in milliseconds for a request
+   */
+  public AsyncHttpTransport(int maxConnections, int timeoutMillis) {
+    this(maxConnections, Math.min(maxConnections, Runtime.getRuntime().availableProcessors()),
+        timeoutMillis);
+  }
+
+  /**
+   * @param maxConnections maximum number of connections per server
+   * @param ioThreads number of IO threads serving the connections
+   * @param timeoutMillis timeout in milliseconds for a request
+   */
+  public AsyncHttpTransport(int maxConnections, int ioThreads, int timeoutMillis) {
+    if (maxConnections < 1) {
+      throw new IllegalArgumentException("at least one connection is required");
+    }
+    if (ioThreads < 1) {
+      throw new IllegalArgumentException("at least one IO thread is required");
+    }
+    ThreadFactory threads = new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("predictionio-io-%d")
+        .build();
+    this.channelFactory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(threads),
+        Executors.newCachedThreadPool(threads), 1, ioThreads);
+    NettyAsyncHttpProviderConfig providerConfig = new NettyAsyncHttpProviderConfig();
+    providerConfig.setSocketChannelFactory(channelFactory);
+    AsyncHttpClientConfig config = (new AsyncHttpClientConfig.Builder())
+        .setAllowPoolingConnections(true)
+        .setAllowPoolingSslConnections(true)
+        .setMaxConnectionsPerHost(maxConnections)
+        .setRequestTimeout(timeoutMillis)
+        .setAsyncHttpClientProviderConfig(providerConfig)
+        .build();
+    this.client = new AsyncHttpClient(new NettyAsyncHttpProvider(config), config);
+  }
+
+  @Override
+  public ListenableFuture<APIResponse> send(HttpRequest request, boolean discardSuccessBody) {
+    RequestBuilder builder = new RequestBuilder(request.getMethod()).setUrl(request.getUrl());
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      builder.setHeader(header.getKey(), header.getValue());
+    }
+    if (request.getBody() != null) {
+      builder.setBody(request.getBody());
+    }
+    return ListenableFutureAdapter.asGuavaFuture(
+        client.executeRequest(builder.build(), new ResponseHandler(discardSuccessBody)));
+  }
+
+  @Override
+  public void close() {
+    client.close();
+    // the provider does not release a channel factory it was given
+    channelFactory.releaseExternalResources();
+  }
+
+  private static class ResponseHandler implements AsyncHandler<APIResponse> {
+    private final boolean discardSuccessBody;
+    private int status;
+    private boolean discard;
+    private Charset charset = StandardCharsets.UTF_8;
+    // body parts are kept as received and only joined if there is more than one
+    private byte[] firstPart;
+    private List<byte[]> parts;
+    private int length;
+    private long receivedBytes;
+
+    ResponseHandler(boolean discardSuccessBody) {
+      this.discardSuccessBody = discardSuccessBody;
+    }
+
+    public void onThrowable(Throwable throwable) {
+      // reported through the future
+    }
+
+    public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+      receivedBytes += content.length();
+      if (discard || content.length() == 0) {
+        return STATE.CONTINUE;
+      }
+      byte[] bytes = content.getBodyPartBytes();
+      if (firstPart == null) {
+        firstPart = bytes;
+      } else {
+        if (parts == null) {
+          parts = new ArrayList<>();
+          parts.add(firstPart);
+        }
+        parts.add(bytes);
+      }
+      length += bytes.length;
+      return STATE.CONTINUE;
+    }
+
+    public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
+      this.status = status.getStatusCode();
+      this.discard = discardSuccessBody && this.status / 100 == 2;
+      return STATE.CONTINUE;
+    }
+
+    public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+      String contentType = headers.getHeaders().getFirstValue("Content-Type");
+      String charsetName =
+          contentType != null ? AsyncHttpProviderUtils.parseCharset(contentType) : null;
+      if (charsetName != null) {
+        try {
+          charset = Charset.forName(charsetName);
+        } catch (IllegalArgumentException e) {
+          // keep UTF-8, the default for JSON
+        }
+      }
+      return STATE.CONTINUE;
+    }
+
+    public APIResponse onCompleted() throws Exception {
+      return new APIResponse(status, discard ? null : body(), charset, receivedBytes);
+    }
+
+    private byte[] body() {
+      if (parts == null) {
+        return firstPart;
+      }
+      byte[] body = new byte[length];
+      int offset = 0;
+      for (byte[] part : parts) {
+        System.arraycopy(part, 0, body, offset, part.length);
+        offset += part.length;
+      }
+      return body;
+    }
+  }
+}
@@ -17,19 +17,29 @@
 
 package org.apache.predictionio.sdk.java;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonParser;
-import com.ning.http.client.AsyncHandler;
-import com.ning.http.client.AsyncHttpClient;
-import com.ning.http.client.AsyncHttpClientConfig;
-import com.ning.http.client.HttpResponseBodyPart;
-import com.ning.http.client.HttpResponseHeaders;
-import com.ning.http.client.HttpResponseStatus;
-import com.ning.http.client.Response;
-import com.ning.http.client.extra.ThrottleRequestFilter;
-import com.ning.http.client.providers.netty.NettyAsyncHttpProvider;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * BaseClient contains code common to both {@link EventClient} and {@link EngineClient}.
@@ -50,10 +60,36 @@ public abstract class BaseClient implements Closeable {
   // API Url
   final String apiUrl;
 
-  final AsyncHttpClient client;
+  final int threadLimit;
+
+  // timeout in milliseconds for the default transport
+  private final int timeoutMillis;
+
+  // created on first use unless set
+  private volatile Transport transport;
+
+  // guarded by this
+  private boolean closed;
+
+  private final RequestQueue requestQueue;
+
+  final ClientMetrics metrics = new ClientMetrics();
+
+  // request bodies of at least this many bytes are compressed, or none if negative
+  private volatile int compressionThreshold = -1;
+  private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+  // runs the parsing of responses for the Async methods
+  private volatile Executor callbackExecutor = MoreExecutors.directExecutor();
+
+  private volatile RetryPolicy retryPolicy;
+  private volatile CircuitBreaker circuitBreaker;
 
   final JsonParser parser = new JsonParser();
 
+  // created on first use by features that need background timers
+  private ScheduledExecutorService scheduler;
+
   /**
    * @param apiUrl the URL of the PredictionIO API
    */
@@ -81,21 +117,17 @@ public abstract class BaseClient implements Closeable {
   /**
    * @param apiUrl the URL of the PredictionIO API
    * @param threadLimit maximum number of simultaneous threads (connections) to the API
-   * @param queueSize size of the queue
+   * @param queueSize maximum number of requests waiting for one of the {@code threadLimit}
+   *     connections; see {@link #setRejectionPolicy(RejectionPolicy, long)} for what happens when
+   *     the queue is full
    * @param timeout timeout in seconds for the connections
    */
   public BaseClient(String apiUrl, int threadLimit, int queueSize, int timeout) {
     this.apiUrl = apiUrl;
-    // Async HTTP client config
-    AsyncHttpClientConfig config = (new AsyncHttpClientConfig.Builder())
-        .setAllowPoolingConnections(true)
-        .setAllowPoolingSslConnections(true)
-        .addRequestFilter(new ThrottleRequestFilter(threadLimit))
-        .setMaxConnectionsPerHost(threadLimit)
-        .setRequestTimeout(timeout * 1000)
-        .setIOThreadMultiplier(threadLimit)
-        .build();
-    this.client = new AsyncHttpClient(new NettyAsyncHttpProvider(config), config);
+    this.threadLimit = threadLimit;
+    this.requestQueue = new RequestQueue(this, threadLimit, queueSize);
+    // the transport, with its connections and threads, is created on first use
+    this.timeoutMillis = timeout * 1000;
   }
 
   /**
@@ -104,36 +136,433 @@ public abstract class BaseClient implements Closeable {
    */
   @Override
   public void close() {
-    client.close();
+    Transport t;
+    synchronized (this) {
+      closed = true;
+      t = transport;
+    }
+    if (t != null) {
+      t.close();
+    }
+    metrics.unregisterMBeans();
+    synchronized (this) {
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+      }
+    }
   }
 
-  AsyncHandler<APIResponse> getHandler() {
-    return new AsyncHandler<APIResponse>() {
-      private final Response.ResponseBuilder builder = new Response.ResponseBuilder();
+  /**
+   * Sets the transport that sends the requests of this client, in place of an {@link
+   * AsyncHttpTransport}. The transport is closed with the client.
+   *
+   * @param transport the transport to use
+   * @throws IllegalStateException if this client has already sent requests or is closed
+   */
+  public synchronized void setTransport(Transport transport) {
+    if (transport == null) {
+      throw new NullPointerException("transport");
+    }
+    if (closed) {
+      throw new IllegalStateException("client is closed");
+    }
+    if (this.transport != null) {
+      throw new IllegalStateException("the transport can only be set before the first request");
+    }
+    this.transport = transport;
+  }
 
-      public void onThrowable(Throwable throwable) {
+  /**
+   * Returns the transport, creating the default one on first use.
+   *
+   * @throws IllegalStateException if this client is closed
+   */
+  Transport transport() {
+    Transport t = transport;
+    if (t == null) {
+      synchronized (this) {
+        if (closed) {
+          throw new IllegalStateException("client is closed");
+        }
+        t = transport;
+        if (t == null) {
+          t = new AsyncHttpTransport(connectionsPerServer(), timeoutMillis);
+          transport = t;
+        }
       }
+    }
+    return t;
+  }
 
-      public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
-        builder.accumulate(content);
-        return STATE.CONTINUE;
+  /**
+   * Sends a single attempt of a request through the transport. The outcome is recorded in the
+   * metrics before the returned future completes, so metrics are up to date when a caller sees
+   * the response.
+   */
+  FutureAPIResponse send(String endpoint, HttpRequest request) {
+    final ClientMetrics.Sample sample = metrics.start(endpoint, request);
+    final ListenableFuture<APIResponse> sent;
+    try {
+      sent = transport().send(request, discardsBody(endpoint, request));
+    } catch (RuntimeException e) {
+      sample.fail(e);
+      throw e;
+    }
+    final SettableFuture<APIResponse> result = SettableFuture.create();
+    sent.addListener(new Runnable() {
+      public void run() {
+        try {
+          APIResponse response = sent.get();
+          sample.bytesReceived = response.getReceivedBytes();
+          sample.respond(response.getStatus());
+          result.set(response);
+        } catch (CancellationException e) {
+          result.cancel(false);
+        } catch (InterruptedException | ExecutionException e) {
+          Throwable cause = e.getCause() != null ? e.getCause() : e;
+          sample.fail(cause);
+          result.setException(cause);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+    final FutureAPIResponse response = new FutureAPIResponse(result);
+    response.addListener(new Runnable() {
+      public void run() {
+        if (response.isCancelled()) {
+          sent.cancel(true);
+        }
+        sample.complete(response);
       }
+    }, MoreExecutors.directExecutor());
+    return response;
+  }
 
-      public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
-        builder.accumulate(status);
-        return STATE.CONTINUE;
+  /**
+   * Sets the executor that parses responses and completes the futures returned by the methods
+   * with an "Async" suffix, and so runs the listeners added to those futures with a direct
+   * executor. By default this happens on the HTTP client thread that received the response,
+   * which suits small responses and short listeners.
+   *
+   * @param executor the executor to use
+   */
+  public void setCallbackExecutor(Executor executor) {
+    if (executor == null) {
+      throw new NullPointerException("executor");
+    }
+    this.callbackExecutor = executor;
+  }
+
+  /**
+   * Parses a response into the typed result of a request.
+   */
+  interface ResponseParser<T> {
+    T parse(APIResponse response) throws IOException;
+  }
+
+  /**
+   * Returns a future completed with the parsed response, or failed with the exception thrown by
+   * the parser. Cancelling it cancels the request.
+   */
+  <T> ListenableFuture<T> parseAsync(ListenableFuture<APIResponse> response,
+      final ResponseParser<T> parser) {
+    return Futures.transform(response, new AsyncFunction<APIResponse, T>() {
+      public ListenableFuture<T> apply(APIResponse result) throws IOException {
+        return Futures.immediateFuture(parser.parse(result));
       }
+    }, callbackExecutor);
+  }
+
+  /**
+   * Opens connections to the API ahead of the first requests, so that those do not pay for
+   * connection setup. Each connection is opened and checked with a status request, and is then
+   * kept in the connection pool. At most {@code threadLimit} connections are opened per server.
+   * The status requests bypass the request queue, so this method never blocks.
+   *
+   * @param connections number of connections to open per server
+   * @return a future completed with the number of connections opened once all attempts are done
+   */
+  public ListenableFuture<Integer> prewarm(int connections) {
+    final List<ListenableFuture<APIResponse>> attempts = startPrewarm(connections);
+    return Futures.transform(Futures.successfulAsList(attempts),
+        new Function<List<APIResponse>, Integer>() {
+          public Integer apply(List<APIResponse> responses) {
+            return countWarm(attempts);
+          }
+        });
+  }
+
+  /**
+   * Opens connections to the API like {@link #prewarm(int)}, and waits until they are open or
+   * the timeout expires. Waits at most {@code timeoutMillis}.
+   *
+   * @param connections number of connections to open per server
+   * @param timeoutMillis maximum time in milliseconds to wait
+   * @return the number of connections opened within the timeout
+   * @throws InterruptedException indicates an interruption while waiting
+   */
+  public int prewarm(int connections, long timeoutMillis) throws InterruptedException {
+    List<ListenableFuture<APIResponse>> attempts = startPrewarm(connections);
+    try {
+      Futures.successfulAsList(attempts).get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // count what is open so far
+    }
+    return countWarm(attempts);
+  }
+
+  /**
+   * Returns the number of connections per server the default transport allows.
+   */
+  int connectionsPerServer() {
+    return threadLimit;
+  }
+
+  /**
+   * Returns the servers {@link #prewarm(int)} opens connections to.
+   */
+  List<String> serverUrls() {
+    return Collections.singletonList(apiUrl);
+  }
+
+  private List<ListenableFuture<APIResponse>> startPrewarm(int connections) {
+    if (connections < 1) {
+      throw new IllegalArgumentException("at least one connection is required");
+    }
+    List<ListenableFuture<APIResponse>> attempts = new ArrayList<>();
+    for (String url : serverUrls()) {
+      for (int i = 0; i < Math.min(connections, threadLimit); i++) {
+        try {
+          // sent concurrently, past the request queue, so each needs a connection of its own;
+          // the transport allows threadLimit connections per server
+          attempts.add(send("/", HttpRequest.get(url)));
+        } catch (RuntimeException e) {
+          attempts.add(Futures.<APIResponse>immediateFailedFuture(e));
+        }
+      }
+    }
+    return attempts;
+  }
+
+  private static int countWarm(List<ListenableFuture<APIResponse>> attempts) {
+    int warm = 0;
+    for (ListenableFuture<APIResponse> attempt : attempts) {
+      if (attempt.isDone() && !attempt.isCancelled()) {
+        try {
+          attempt.get();
+          warm++;
+        } catch (InterruptedException | ExecutionException e) {
+          // not opened
+        }
+      }
+    }
+    return warm;
+  }
+
+  /**
+   * Returns the daemon scheduler shared by the background tasks of this client.
+   */
+  synchronized ScheduledExecutorService scheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("predictionio-client-%d")
+          .build());
+    }
+    return scheduler;
+  }
+
+  /**
+   * Sets what happens to a new request when {@code threadLimit} requests are in flight and {@code
+   * queueSize} requests are waiting. The default is {@link RejectionPolicy#BLOCK} without a
+   * timeout.
+   *
+   * @param policy the policy to apply
+   * @param blockTimeoutMillis for {@link RejectionPolicy#BLOCK}, maximum time in milliseconds the
+   *     caller waits, or 0 to wait indefinitely
+   */
+  public void setRejectionPolicy(RejectionPolicy policy, long blockTimeoutMillis) {
+    requestQueue.setPolicy(policy, blockTimeoutMillis);
+  }
+
+  /**
+   * Returns the number of requests waiting to be sent.
+   */
+  public int getQueueDepth() {
+    return requestQueue.getQueueDepth();
+  }
+
+  /**
+   * Returns the number of requests sent and waiting for a response.
+   */
+  public int getInFlightCount() {
+    return requestQueue.getInFlight();
+  }
+
+  /**
+   * Returns the per-endpoint request metrics of this client.
+   */
+  public ClientMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Adds a listener called for every request this client sends.
+   */
+  public void addMetricsListener(MetricsListener listener) {
+    metrics.addListener(listener);
+  }
 
-      public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
-        builder.accumulate(headers);
-        return STATE.CONTINUE;
+  /**
+   * Removes a listener added by {@link #addMetricsListener(MetricsListener)}.
+   */
+  public void removeMetricsListener(MetricsListener listener) {
+    metrics.removeListener(listener);
+  }
+
+  /**
+   * Turns on gzip compression. Request bodies of at least {@code minRequestBytes} bytes, such as
+   * event batches, are sent with {@code Content-Encoding: gzip}, and servers are told that they
+   * may compress responses, which are decompressed as they are received. Only turn this on for
+   * servers, or proxies in front of them, that accept compressed request bodies.
+   *
+   * @param minRequestBytes smallest request body to compress
+   * @param level compression level from 1 (fastest) to 9 (smallest)
+   */
+  public void setCompression(int minRequestBytes, int level) {
+    if (minRequestBytes < 0) {
+      throw new IllegalArgumentException("threshold must not be negative");
+    }
+    if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("level must be between 1 and 9");
+    }
+    this.compressionLevel = level;
+    this.compressionThreshold = minRequestBytes;
+  }
+
+  /**
+   * Turns off gzip compression.
+   */
+  public void disableCompression() {
+    this.compressionThreshold = -1;
+  }
+
+  /**
+   * Builds a request with a JSON body, compressing the body if compression is on and the body is
+   * large enough.
+   */
+  HttpRequest jsonRequest(String method, String url, byte[] json) {
+    HttpRequest builder = new HttpRequest(method, url);
+    builder.header("Content-Type", "application/json");
+    byte[] body = json;
+    int threshold = compressionThreshold;
+    if (threshold >= 0) {
+      builder.header("Accept-Encoding", "gzip");
+      if (json.length >= threshold) {
+        byte[] compressed = gzip(json, compressionLevel);
+        if (compressed.length < json.length) {
+          body = compressed;
+          builder.header("Content-Encoding", "gzip");
+        }
       }
+    }
+    return builder.header("Content-Length", "" + body.length).body(body);
+  }
 
-      public APIResponse onCompleted() throws Exception {
-        Response response = builder.build();
-        return new APIResponse(response.getStatusCode(), response.getResponseBody());
+  private static byte[] gzip(byte[] data, final int level) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192) {
+      {
+        def.setLevel(level);
       }
-    };
+    }) {
+      gzip.write(data);
+    } catch (IOException e) {
+      // not thrown by in-memory streams
+      throw new IllegalStateException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Sets how failed requests are retried, or disables retries if null. Retries are disabled by
+   * default.
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Sets a circuit breaker consulted before every request, or removes it if null. There is no
+   * circuit breaker by default.
+   */
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Sends a request, applying the retry policy and circuit breaker if set.
+   *
+   * @param endpoint the endpoint the request is counted against in the client metrics
+   * @param idempotent whether sending the request twice has the same effect as sending it once
+   */
+  FutureAPIResponse execute(String endpoint, HttpRequest request, boolean idempotent)
+      throws IOException {
+    RetryPolicy policy = retryPolicy;
+    CircuitBreaker breaker = circuitBreaker;
+    if (policy == null && breaker == null) {
+      return submit(endpoint, request);
+    }
+    return new RetryingCall(this, endpoint, request, idempotent, policy, breaker).start();
+  }
+
+  /**
+   * Sends a single attempt of a request through the request queue.
+   */
+  FutureAPIResponse submit(String endpoint, HttpRequest request) throws IOException {
+    return requestQueue.submit(endpoint, request);
+  }
+
+  /**
+   * Sends a request like {@link #execute(String, HttpRequest, boolean)}, but only if the request
+   * queue admits it without waiting. Background tasks on the {@link #scheduler()} thread send
+   * through this, since blocking that thread would stall every other timer of the client.
+   *
+   * @param mayQueue whether the request may wait in the request queue if no slot is free
+   * @return the response, or null if the request was not admitted
+   */
+  FutureAPIResponse tryExecute(String endpoint, HttpRequest request, boolean idempotent,
+      boolean mayQueue) throws IOException {
+    RetryPolicy policy = retryPolicy;
+    CircuitBreaker breaker = circuitBreaker;
+    if (policy == null && breaker == null) {
+      return trySubmit(endpoint, request, mayQueue);
+    }
+    return new RetryingCall(this, endpoint, request, idempotent, policy, breaker)
+        .tryStart(mayQueue);
+  }
+
+  /**
+   * Sends a single attempt of a request through the request queue if it is admitted without
+   * waiting, returning null otherwise.
+   */
+  FutureAPIResponse trySubmit(String endpoint, HttpRequest request, boolean mayQueue) {
+    return requestQueue.trySubmit(endpoint, request, mayQueue);
+  }
+
+  /**
+   * Returns whether the body of a successful response to a request is of no use to the caller
+   * and can be dropped as it arrives.
+   */
+  boolean discardsBody(String endpoint, HttpRequest request) {
+    return false;
   }
 
   /**
@@ -144,8 +573,7 @@ public abstract class BaseClient implements Closeable {
    * @throws IOException indicates an error from the API response
    */
   public String getStatus() throws ExecutionException, InterruptedException, IOException {
-    return (new FutureAPIResponse(client.prepareGet(apiUrl).execute(getHandler()))).get()
-        .getMessage();
+    return execute("/", HttpRequest.get(apiUrl), true).get().getMessage();
   }
 
 }
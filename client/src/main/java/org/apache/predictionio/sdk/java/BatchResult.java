@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BatchResult holds the per-event results of a batch request: the status of each event, and its
+ * event ID if it was created or an error message otherwise, in the order the events were sent.
+ * Results are read from the response with a streaming parser into plain arrays.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public final class BatchResult {
+
+  private final int size;
+  private final int[] statuses;
+  private final String[] eventIds;
+  private final String[] messages;
+
+  private BatchResult(int size, int[] statuses, String[] eventIds, String[] messages) {
+    this.size = size;
+    this.statuses = statuses;
+    this.eventIds = eventIds;
+    this.messages = messages;
+  }
+
+  /**
+   * Returns the number of results.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the status of the i-th event, or 0 if the response has no status for it.
+   */
+  public int getStatus(int i) {
+    checkIndex(i);
+    return statuses[i];
+  }
+
+  /**
+   * Returns whether the i-th event was created.
+   */
+  public boolean isCreated(int i) {
+    return getStatus(i) == BaseClient.HTTP_CREATED;
+  }
+
+  /**
+   * Returns the event ID of the i-th event, or null if it was not created.
+   */
+  public String getEventId(int i) {
+    checkIndex(i);
+    return eventIds[i];
+  }
+
+  /**
+   * Returns the error message for the i-th event, or null if there is none.
+   */
+  public String getMessage(int i) {
+    checkIndex(i);
+    return messages[i];
+  }
+
+  /**
+   * Returns the number of events created.
+   */
+  public int getCreatedCount() {
+    int created = 0;
+    for (int i = 0; i < size; i++) {
+      if (statuses[i] == BaseClient.HTTP_CREATED) {
+        created++;
+      }
+    }
+    return created;
+  }
+
+  /**
+   * Returns the event IDs in order, with null for events that were not created. The list is a
+   * read-only view of this result.
+   */
+  public List<String> getEventIds() {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return getEventId(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Returns the result of the i-th event as a JSON object, as the Event Server would send it for
+   * a single event.
+   */
+  String toJson(int i) {
+    checkIndex(i);
+    Utf8JsonWriter writer = Utf8JsonWriter.get();
+    writer.beginObject();
+    writer.name("status");
+    writer.writeValue(statuses[i]);
+    if (eventIds[i] != null) {
+      writer.comma();
+      writer.name("eventId");
+      writer.writeString(eventIds[i]);
+    }
+    if (messages[i] != null) {
+      writer.comma();
+      writer.name("message");
+      writer.writeString(messages[i]);
+    }
+    writer.endObject();
+    return new String(writer.buffer(), 0, writer.size(), StandardCharsets.UTF_8);
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+    }
+  }
+
+  /**
+   * Reads a batch response body.
+   *
+   * @throws IOException if the body is not a JSON array
+   */
+  public static BatchResult parse(String json) throws IOException {
+    return parse(new StringReader(json), EventBatcher.MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Reads a batch response body.
+   *
+   * @param expectedSize number of events in the batch, used to size the arrays
+   * @throws IOException if the body is not a JSON array
+   */
+  static BatchResult parse(Reader json, int expectedSize) throws IOException {
+    int capacity = Math.max(expectedSize, 1);
+    int[] statuses = new int[capacity];
+    String[] eventIds = new String[capacity];
+    String[] messages = new String[capacity];
+    int size = 0;
+
+    JsonReader reader = new JsonReader(json);
+    try {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        if (size == capacity) {
+          capacity *= 2;
+          statuses = Arrays.copyOf(statuses, capacity);
+          eventIds = Arrays.copyOf(eventIds, capacity);
+          messages = Arrays.copyOf(messages, capacity);
+        }
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+          reader.skipValue();
+          size++;
+          continue;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if (reader.peek() == JsonToken.NULL) {
+            reader.skipValue();
+          } else if (name.equals("status")) {
+            statuses[size] = reader.nextInt();
+          } else if (name.equals("eventId")) {
+            eventIds[size] = reader.nextString();
+          } else if (name.equals("message")) {
+            messages[size] = reader.nextString();
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+        size++;
+      }
+      reader.endArray();
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException("unexpected batch response: " + e.getMessage(), e);
+    } finally {
+      reader.close();
+    }
+    return new BatchResult(size, statuses, eventIds, messages);
+  }
+}
@@ -0,0 +1,504 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * The binary event export format written by {@link FileExporter} and read by {@link
+ * BinaryEventReader}.
+ *
+ * <pre>
+ * file   := magic ("PIOB") version (1 byte) block*
+ * block  := rawLength (int) compressedLength (int) eventCount (int) deflate(event*)
+ * event  := string{5} time properties
+ * time   := 0 | 1 varlong(millis) varlong(offsetMillis)
+ * string := 0 (null) | 1 varint(length) utf8 (added to the dictionary) | varint(2 + index)
+ * </pre>
+ *
+ * <p>Integers are big-endian, varints are unsigned LEB128 and varlongs zigzag-encoded LEB128.
+ * Each block has its own string dictionary, built as strings are first seen, so event names,
+ * entity types and property keys are written once per block and blocks can be decoded
+ * independently. Property values are tagged, see the {@code TAG_} constants.
+ */
+final class BinaryEventFormat {
+
+  static final byte[] MAGIC = {'P', 'I', 'O', 'B'};
+  static final int VERSION = 1;
+  static final int BLOCK_HEADER_SIZE = 12;
+
+  static final int TAG_NULL = 0;
+  static final int TAG_FALSE = 1;
+  static final int TAG_TRUE = 2;
+  static final int TAG_LONG = 3;
+  static final int TAG_DOUBLE = 4;
+  static final int TAG_STRING = 5;
+  static final int TAG_LIST = 6;
+  static final int TAG_MAP = 7;
+  /** Any other number, kept as its decimal string. */
+  static final int TAG_DECIMAL = 8;
+  /** A value without a binary form, kept as JSON text. */
+  static final int TAG_JSON = 9;
+
+  private BinaryEventFormat() {
+  }
+
+  /**
+   * Encodes events into a block. Not thread-safe.
+   */
+  static final class Encoder {
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    /** Dictionary strings in index order, to undo the entries of a failed event. */
+    private final List<String> entries = new ArrayList<>();
+    private final Deflater deflater = new Deflater();
+    private byte[] buf = new byte[1024];
+    private int size;
+    private int eventCount;
+
+    /**
+     * Returns the uncompressed size of the current block.
+     */
+    int size() {
+      return size;
+    }
+
+    int getEventCount() {
+      return eventCount;
+    }
+
+    /**
+     * Appends an event to the current block. If a value cannot be encoded, the block is left as
+     * it was before the call.
+     *
+     * @throws IllegalArgumentException indicates a value that cannot be encoded
+     */
+    void writeEvent(String eventName, String entityType, String entityId,
+        String targetEntityType, String targetEntityId, Map<String, Object> properties,
+        DateTime eventTime) {
+      int mark = size;
+      int dictionaryMark = entries.size();
+      try {
+        writeFields(eventName, entityType, entityId, targetEntityType, targetEntityId,
+            properties, eventTime);
+      } catch (RuntimeException e) {
+        size = mark;
+        while (entries.size() > dictionaryMark) {
+          dictionary.remove(entries.remove(entries.size() - 1));
+        }
+        throw e;
+      }
+      eventCount++;
+    }
+
+    private void writeFields(String eventName, String entityType, String entityId,
+        String targetEntityType, String targetEntityId, Map<String, Object> properties,
+        DateTime eventTime) {
+      writeString(eventName);
+      writeString(entityType);
+      writeString(entityId);
+      writeString(targetEntityType);
+      writeString(targetEntityId);
+      if (eventTime == null) {
+        writeByte(0);
+      } else {
+        writeByte(1);
+        writeVarLong(eventTime.getMillis());
+        writeVarLong(eventTime.getZone().getOffset(eventTime.getMillis()));
+      }
+      if (properties != null) {
+        writeMap(properties);
+      } else {
+        writeByte(TAG_MAP);
+        writeVarInt(0);
+      }
+    }
+
+    /**
+     * Compresses the current block and returns it with its header, then starts a new block.
+     */
+    byte[] finishBlock() {
+      deflater.reset();
+      deflater.setInput(buf, 0, size);
+      deflater.finish();
+      byte[] out = new byte[BLOCK_HEADER_SIZE + size / 2 + 64];
+      int length = BLOCK_HEADER_SIZE;
+      while (!deflater.finished()) {
+        if (length == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        length += deflater.deflate(out, length, out.length - length);
+      }
+      putInt(out, 0, size);
+      putInt(out, 4, length - BLOCK_HEADER_SIZE);
+      putInt(out, 8, eventCount);
+      size = 0;
+      eventCount = 0;
+      dictionary.clear();
+      entries.clear();
+      return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    void end() {
+      deflater.end();
+    }
+
+    private void writeValue(Object value) {
+      if (value == null) {
+        writeByte(TAG_NULL);
+      } else if (value instanceof String) {
+        writeByte(TAG_STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+      } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+          || value instanceof Byte) {
+        writeByte(TAG_LONG);
+        writeVarLong(((Number) value).longValue());
+      } else if (value instanceof Double || value instanceof Float) {
+        double d = ((Number) value).doubleValue();
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+          throw new IllegalArgumentException("JSON forbids NaN and infinities: " + value);
+        }
+        writeByte(TAG_DOUBLE);
+        long bits = Double.doubleToRawLongBits(d);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          writeByte((int) (bits >>> shift));
+        }
+      } else if (value instanceof Number) {
+        writeByte(TAG_DECIMAL);
+        writeString(value.toString());
+      } else if (value instanceof DateTime || value instanceof Character) {
+        writeByte(TAG_STRING);
+        writeString(value.toString());
+      } else if (value instanceof Enum) {
+        writeByte(TAG_STRING);
+        writeString(((Enum<?>) value).name());
+      } else if (value instanceof Map) {
+        writeMap((Map<?, ?>) value);
+      } else if (value instanceof Iterable) {
+        List<Object> elements = new ArrayList<>();
+        for (Object element : (Iterable<?>) value) {
+          elements.add(element);
+        }
+        writeByte(TAG_LIST);
+        writeVarInt(elements.size());
+        for (Object element : elements) {
+          writeValue(element);
+        }
+      } else if (value.getClass().isArray()) {
+        int length = Array.getLength(value);
+        writeByte(TAG_LIST);
+        writeVarInt(length);
+        for (int i = 0; i < length; i++) {
+          writeValue(Array.get(value, i));
+        }
+      } else {
+        // JSON trees and other objects keep their JSON form
+        Utf8JsonWriter json = Utf8JsonWriter.get();
+        json.writeValue(value);
+        writeByte(TAG_JSON);
+        writeString(new String(json.toByteArray(), StandardCharsets.UTF_8));
+      }
+    }
+
+    private void writeMap(Map<?, ?> map) {
+      // null values are omitted, as in JSON exports
+      int count = 0;
+      for (Object value : map.values()) {
+        if (value != null) {
+          count++;
+        }
+      }
+      writeByte(TAG_MAP);
+      writeVarInt(count);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        if (entry.getValue() != null) {
+          writeString(String.valueOf(entry.getKey()));
+          writeValue(entry.getValue());
+        }
+      }
+    }
+
+    private void writeString(String s) {
+      if (s == null) {
+        writeVarInt(0);
+        return;
+      }
+      Integer index = dictionary.get(s);
+      if (index != null) {
+        writeVarInt(index + 2);
+        return;
+      }
+      dictionary.put(s, entries.size());
+      entries.add(s);
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(1);
+      writeVarInt(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buf, size, bytes.length);
+      size += bytes.length;
+    }
+
+    private void writeVarLong(long value) {
+      long v = (value << 1) ^ (value >> 63);
+      while ((v & ~0x7FL) != 0) {
+        writeByte((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      writeByte((int) v);
+    }
+
+    private void writeVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    private void writeByte(int b) {
+      ensureCapacity(1);
+      buf[size++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+      }
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+      b[offset] = (byte) (value >>> 24);
+      b[offset + 1] = (byte) (value >>> 16);
+      b[offset + 2] = (byte) (value >>> 8);
+      b[offset + 3] = (byte) value;
+    }
+  }
+
+  /**
+   * Decodes the events of one block.
+   */
+  static final class Decoder {
+
+    private final List<String> dictionary = new ArrayList<>();
+    private final byte[] buf;
+    private final int limit;
+    private int pos;
+    private int remaining;
+
+    /**
+     * @param block uncompressed block contents
+     * @param eventCount number of events in the block
+     */
+    Decoder(byte[] block, int eventCount) {
+      this.buf = block;
+      this.limit = block.length;
+      this.remaining = eventCount;
+    }
+
+    /**
+     * Inflates a compressed block.
+     *
+     * @throws IOException indicates corrupt data
+     */
+    static byte[] inflate(Inflater inflater, byte[] compressed, int rawLength)
+        throws IOException {
+      byte[] raw = new byte[rawLength];
+      inflater.reset();
+      inflater.setInput(compressed);
+      try {
+        int length = 0;
+        while (length < rawLength && !inflater.finished()) {
+          int n = inflater.inflate(raw, length, rawLength - length);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          length += n;
+        }
+        if (length != rawLength) {
+          throw new IOException("corrupt binary event block: expected " + rawLength
+              + " bytes, inflated " + length);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("corrupt binary event block: " + e.getMessage(), e);
+      }
+      return raw;
+    }
+
+    /**
+     * Returns the next event of the block, or null after the last one.
+     *
+     * @throws IOException indicates corrupt data
+     */
+    Event next() throws IOException {
+      if (remaining == 0) {
+        return null;
+      }
+      remaining--;
+      try {
+        Event event = new Event()
+            .event(readString())
+            .entityType(readString())
+            .entityId(readString())
+            .targetEntityType(readString())
+            .targetEntityId(readString());
+        if (readByte() != 0) {
+          long millis = readVarLong();
+          int offset = (int) readVarLong();
+          event.eventTime(new DateTime(millis, DateTimeZone.forOffsetMillis(offset)));
+        }
+        Object properties = readValue();
+        if (!(properties instanceof Map)) {
+          throw new IOException("corrupt binary event block: properties are not a map");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) properties;
+        event.properties(map);
+        return event;
+      } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+        throw new IOException("corrupt binary event block: " + e.getMessage(), e);
+      }
+    }
+
+    private Object readValue() throws IOException {
+      int tag = readByte();
+      switch (tag) {
+        case TAG_NULL:
+          return null;
+        case TAG_FALSE:
+          return Boolean.FALSE;
+        case TAG_TRUE:
+          return Boolean.TRUE;
+        case TAG_LONG:
+          return readVarLong();
+        case TAG_DOUBLE:
+          long bits = 0;
+          for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | readByte();
+          }
+          return Double.longBitsToDouble(bits);
+        case TAG_STRING:
+          return readString();
+        case TAG_LIST:
+          int length = readCount();
+          List<Object> list = Lists.newArrayListWithCapacity(length);
+          for (int i = 0; i < length; i++) {
+            list.add(readValue());
+          }
+          return list;
+        case TAG_MAP:
+          int count = readCount();
+          Map<String, Object> map = Maps.newLinkedHashMap();
+          for (int i = 0; i < count; i++) {
+            map.put(readString(), readValue());
+          }
+          return map;
+        case TAG_DECIMAL:
+          return new BigDecimal(readString());
+        case TAG_JSON:
+          JsonReader reader = new JsonReader(new StringReader(readString()));
+          reader.setLenient(true);
+          try {
+            return StreamingEventCodec.readValue(reader);
+          } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("corrupt binary event block: " + e.getMessage(), e);
+          }
+        default:
+          throw new IOException("corrupt binary event block: unknown value tag " + tag);
+      }
+    }
+
+    private String readString() throws IOException {
+      int code = readVarInt();
+      if (code == 0) {
+        return null;
+      }
+      if (code == 1) {
+        int length = readCount();
+        if (length > limit - pos) {
+          throw new IOException("corrupt binary event block: string past the end");
+        }
+        String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        dictionary.add(s);
+        return s;
+      }
+      if (code < 0 || code - 2 >= dictionary.size()) {
+        throw new IOException("corrupt binary event block: unknown string " + code);
+      }
+      return dictionary.get(code - 2);
+    }
+
+    private int readCount() throws IOException {
+      int count = readVarInt();
+      if (count < 0 || count > limit - pos) {
+        throw new IOException("corrupt binary event block: bad length " + count);
+      }
+      return count;
+    }
+
+    private int readVarInt() throws IOException {
+      int v = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = readByte();
+        v |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return v;
+        }
+      }
+      throw new IOException("corrupt binary event block: varint too long");
+    }
+
+    private long readVarLong() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        v |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return (v >>> 1) ^ -(v & 1);
+        }
+      }
+      throw new IOException("corrupt binary event block: varint too long");
+    }
+
+    private int readByte() throws IOException {
+      if (pos >= limit) {
+        throw new IOException("corrupt binary event block: unexpected end");
+      }
+      return buf[pos++] & 0xFF;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * BinaryEventReader replays a file written by {@link FileExporter} in the {@link
+ * FileExporter.Format#BINARY} format, either as {@link Event} objects or as the JSON lines
+ * expected by {@code pio import}.
+ *
+ * <pre>
+ * try (BinaryEventReader reader = new BinaryEventReader("events.bin")) {
+ *   Event event;
+ *   while ((event = reader.read()) != null) {
+ *     ...
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>Property values are read back as they were written: integral numbers as {@link Long},
+ * floating point numbers as {@link Double}, other numbers as {@link java.math.BigDecimal},
+ * {@code DateTime} values as ISO 8601 strings, collections and arrays as lists, and maps as maps.
+ * Instances are not thread-safe.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class BinaryEventReader implements Closeable {
+
+  private final DataInputStream in;
+  private final Inflater inflater = new Inflater();
+  private BinaryEventFormat.Decoder block;
+  private boolean closed;
+
+  /**
+   * @param pathname the file to read
+   * @throws IOException indicates the file cannot be read or is not a binary event export
+   */
+  public BinaryEventReader(String pathname) throws IOException {
+    this(new BufferedInputStream(new FileInputStream(pathname)));
+  }
+
+  /**
+   * @param in the stream to read, closed when the reader is closed
+   * @throws IOException indicates the stream cannot be read or is not a binary event export
+   */
+  public BinaryEventReader(InputStream in) throws IOException {
+    this.in = new DataInputStream(in);
+    byte[] magic = new byte[BinaryEventFormat.MAGIC.length + 1];
+    try {
+      this.in.readFully(magic);
+    } catch (EOFException e) {
+      close();
+      throw new IOException("not a binary event export");
+    }
+    for (int i = 0; i < BinaryEventFormat.MAGIC.length; i++) {
+      if (magic[i] != BinaryEventFormat.MAGIC[i]) {
+        close();
+        throw new IOException("not a binary event export");
+      }
+    }
+    if (magic[magic.length - 1] != BinaryEventFormat.VERSION) {
+      close();
+      throw new IOException("unsupported binary event export version "
+          + magic[magic.length - 1]);
+    }
+  }
+
+  /**
+   * Returns the next event, or null at the end of the file.
+   *
+   * @throws IOException indicates the file cannot be read or is corrupt
+   */
+  public Event read() throws IOException {
+    if (closed) {
+      throw new IllegalStateException("reader is closed");
+    }
+    while (true) {
+      if (block != null) {
+        Event event = block.next();
+        if (event != null) {
+          return event;
+        }
+        block = null;
+      }
+      if (!nextBlock()) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Writes the remaining events to {@code out} as JSON lines, one event per line, in the format
+   * expected by {@code pio import}. The stream is not closed.
+   *
+   * @return the number of events written
+   * @throws IOException indicates the file cannot be read or is corrupt, or a write failure
+   */
+  public long writeJsonLines(OutputStream out) throws IOException {
+    long count = 0;
+    Event event;
+    while ((event = read()) != null) {
+      Utf8JsonWriter writer = Utf8JsonWriter.get();
+      StreamingEventCodec.writeEvent(writer, event);
+      writer.writeByte('\n');
+      out.write(writer.buffer(), 0, writer.size());
+      count++;
+    }
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      inflater.end();
+      in.close();
+    }
+  }
+
+  private boolean nextBlock() throws IOException {
+    int rawLength;
+    try {
+      rawLength = in.readInt();
+    } catch (EOFException e) {
+      return false;
+    }
+    int compressedLength = in.readInt();
+    int eventCount = in.readInt();
+    if (rawLength < 0 || compressedLength < 0 || eventCount < 0) {
+      throw new IOException("corrupt binary event block header");
+    }
+    byte[] compressed = new byte[compressedLength];
+    in.readFully(compressed);
+    block = new BinaryEventFormat.Decoder(
+        BinaryEventFormat.Decoder.inflate(inflater, compressed, rawLength), eventCount);
+    return true;
+  }
+}
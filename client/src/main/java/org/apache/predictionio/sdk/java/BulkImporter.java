@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BulkImporter sends a large number of records to the Event Server through the batch events
+ * endpoint. Each record is turned into events by an {@link EventMapper}, events are grouped into
+ * batches of up to 50, and at most a fixed number of batch requests are in flight at any time,
+ * so memory use does not depend on the size of the input.
+ *
+ * <pre>
+ * BulkImporter&lt;String&gt; importer = new BulkImporter&lt;&gt;(client, mapper, 8);
+ * importer.run(BulkImporter.lines(reader));
+ * </pre>
+ *
+ * @param <T> type of the input records
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class BulkImporter<T> {
+
+  /**
+   * Turns an input record into the events to import.
+   *
+   * @param <T> type of the input records
+   */
+  public interface EventMapper<T> {
+    /**
+     * Returns the events for a record, or an empty list to skip it.
+     */
+    List<Event> map(T record);
+  }
+
+  /**
+   * Receives progress and failure reports. Methods are called from HTTP client threads and should
+   * return quickly.
+   */
+  public interface ProgressListener {
+    /**
+     * Called after each batch request completes.
+     *
+     * @param importedCount number of events accepted by the Event Server so far
+     * @param failedCount number of events that failed so far
+     * @param elapsedNanos time since the import started
+     */
+    void onProgress(long importedCount, long failedCount, long elapsedNanos);
+
+    /**
+     * Called for every event that was not accepted.
+     *
+     * @param event the event
+     * @param status HTTP status for the event, or 0 if the request itself failed
+     * @param message error message from the Event Server or the HTTP client
+     */
+    void onFailure(Event event, int status, String message);
+  }
+
+  private final EventClient client;
+  private final EventMapper<T> mapper;
+  private final int maxInFlight;
+  private final int batchSize;
+  private final Semaphore inFlight;
+  private volatile ProgressListener listener;
+
+  private final AtomicLong importedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  // set by the importing thread, read by the threads completing its requests
+  private volatile long startNanos;
+
+  /**
+   * Creates an importer sending batches of 50 events.
+   *
+   * @param client the client used to send batch requests
+   * @param mapper turns input records into events
+   * @param maxInFlight maximum number of batch requests in flight at the same time
+   */
+  public BulkImporter(EventClient client, EventMapper<T> mapper, int maxInFlight) {
+    this(client, mapper, maxInFlight, EventBatcher.MAX_BATCH_SIZE);
+  }
+
+  /**
+   * @param client the client used to send batch requests
+   * @param mapper turns input records into events
+   * @param maxInFlight maximum number of batch requests in flight at the same time
+   * @param batchSize number of events per batch request, between 1 and 50
+   */
+  public BulkImporter(EventClient client, EventMapper<T> mapper, int maxInFlight,
+      int batchSize) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("at least one request must be allowed in flight");
+    }
+    if (batchSize < 1 || batchSize > EventBatcher.MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("batch size must be between 1 and "
+          + EventBatcher.MAX_BATCH_SIZE);
+    }
+    this.client = client;
+    this.mapper = mapper;
+    this.maxInFlight = maxInFlight;
+    this.batchSize = batchSize;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * Sets the listener receiving progress and failure reports.
+   */
+  public void setProgressListener(ProgressListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Imports all records and waits until every batch request has completed.
+   *
+   * @param records the input records, consumed as the import progresses
+   * @throws InterruptedException indicates an interruption while waiting for requests
+   */
+  public void run(Iterator<? extends T> records) throws InterruptedException {
+    startNanos = System.nanoTime();
+    try {
+      List<Event> batch = new ArrayList<>(batchSize);
+      while (records.hasNext()) {
+        for (Event event : mapper.map(records.next())) {
+          batch.add(event);
+          if (batch.size() == batchSize) {
+            send(batch);
+            batch = new ArrayList<>(batchSize);
+          }
+        }
+      }
+      if (!batch.isEmpty()) {
+        send(batch);
+      }
+    } finally {
+      // wait for the requests still in flight
+      inFlight.acquire(maxInFlight);
+      inFlight.release(maxInFlight);
+    }
+  }
+
+  /**
+   * Returns the number of events accepted by the Event Server.
+   */
+  public long getImportedCount() {
+    return importedCount.get();
+  }
+
+  /**
+   * Returns the number of events that failed.
+   */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * Returns the lines of a reader, read one at a time. The reader is not closed.
+   */
+  public static Iterator<String> lines(final BufferedReader reader) {
+    return new AbstractIterator<String>() {
+      @Override
+      protected String computeNext() {
+        try {
+          String line = reader.readLine();
+          return line != null ? line : endOfData();
+        } catch (IOException e) {
+          throw Throwables.propagate(e);
+        }
+      }
+    };
+  }
+
+  private void send(final List<Event> batch) throws InterruptedException {
+    inFlight.acquire();
+    final FutureAPIResponse response;
+    try {
+      response = client.createEventsAsFuture(batch);
+    } catch (IOException | RuntimeException e) {
+      inFlight.release();
+      fail(batch, 0, e.getMessage());
+      return;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        try {
+          complete(batch, response);
+        } finally {
+          inFlight.release();
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void complete(List<Event> batch, FutureAPIResponse response) {
+    APIResponse result;
+    try {
+      result = response.get();
+    } catch (InterruptedException | ExecutionException e) {
+      fail(batch, 0, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+      return;
+    }
+    if (result.getStatus() != BaseClient.HTTP_OK) {
+      fail(batch, result.getStatus(), result.getMessage());
+      return;
+    }
+
+    BatchResult results;
+    try {
+      results = BatchResult.parse(result.getReader(), batch.size());
+    } catch (IOException | RuntimeException e) {
+      fail(batch, result.getStatus(), "unreadable batch response: " + e.getMessage());
+      return;
+    }
+
+    // read once, so that a listener removed meanwhile is not called through a stale null check
+    ProgressListener l = listener;
+    int imported = 0;
+    for (int i = 0; i < batch.size(); i++) {
+      if (i < results.size() && results.isCreated(i)) {
+        imported++;
+        continue;
+      }
+      failedCount.incrementAndGet();
+      if (l != null) {
+        if (i < results.size()) {
+          l.onFailure(batch.get(i), results.getStatus(i), results.getMessage(i));
+        } else {
+          l.onFailure(batch.get(i), 0, "missing batch response entry");
+        }
+      }
+    }
+    importedCount.addAndGet(imported);
+    progress();
+  }
+
+  private void fail(List<Event> events, int status, String message) {
+    failedCount.addAndGet(events.size());
+    ProgressListener l = listener;
+    if (l != null) {
+      for (Event event : events) {
+        l.onFailure(event, status, message);
+      }
+    }
+    progress();
+  }
+
+  private void progress() {
+    ProgressListener l = listener;
+    if (l != null) {
+      l.onProgress(importedCount.get(), failedCount.get(), System.nanoTime() - startNanos);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CircuitBreaker stops a client from sending requests to a server that keeps failing. After a
+ * number of consecutive failures the circuit opens and requests fail immediately with a {@link
+ * CircuitOpenException}. Once the open period has passed, a single trial request is let through:
+ * if it succeeds the circuit closes, otherwise it opens again.
+ *
+ * <p>Responses with status 500 or above and requests failing without a response count as
+ * failures; all other responses count as successes.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class CircuitBreaker {
+
+  /**
+   * States of a circuit breaker.
+   */
+  public enum State {
+    /** Requests are sent. */
+    CLOSED,
+    /** Requests fail immediately. */
+    OPEN,
+    /** A trial request is in flight; other requests fail immediately. */
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openNanos;
+
+  // guarded by this
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAt;
+
+  /**
+   * @param failureThreshold number of consecutive failures that opens the circuit
+   * @param openMillis time in milliseconds the circuit stays open before a trial request
+   */
+  public CircuitBreaker(int failureThreshold, long openMillis) {
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("failure threshold must be positive");
+    }
+    if (openMillis < 0) {
+      throw new IllegalArgumentException("open time must not be negative");
+    }
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+  }
+
+  public synchronized State getState() {
+    if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+      // the next request will be the trial
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  /**
+   * Lets a request through or throws if the circuit is open.
+   *
+   * @throws CircuitOpenException if the request must not be sent
+   */
+  synchronized void acquire() throws CircuitOpenException {
+    switch (state) {
+      case CLOSED:
+        return;
+      case OPEN:
+        if (System.nanoTime() - openedAt >= openNanos) {
+          state = State.HALF_OPEN;
+          return;
+        }
+        throw new CircuitOpenException("circuit open after " + consecutiveFailures
+            + " consecutive failures");
+      default:
+        throw new CircuitOpenException("circuit half-open, waiting for the trial request");
+    }
+  }
+
+  synchronized void onSuccess() {
+    consecutiveFailures = 0;
+    state = State.CLOSED;
+  }
+
+  /**
+   * Called when an acquired request was not sent after all, or was cancelled before its outcome
+   * was known.
+   */
+  synchronized void onAbandoned() {
+    if (state == State.HALF_OPEN) {
+      // let the next request be the trial
+      state = State.OPEN;
+    }
+  }
+
+  synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+    }
+  }
+
+  /**
+   * Returns whether a response status counts as a failure.
+   */
+  static boolean isFailure(int status) {
+    return status >= 500;
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ClientMetrics collects {@link EndpointMetrics} for every endpoint a client calls, and passes
+ * every request on to the registered {@link MetricsListener}s.
+ *
+ * <p>Metrics can also be published as JMX MBeans named {@code
+ * org.apache.predictionio.sdk.java:type=EndpointMetrics,client=<name>,endpoint=<endpoint>}; see
+ * {@link #registerMBeans(String)}.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class ClientMetrics {
+
+  private static final String jmxDomain = "org.apache.predictionio.sdk.java";
+
+  private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+  private final List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+  // guarded by this
+  private String jmxName;
+  private final List<ObjectName> registered = new ArrayList<>();
+
+  ClientMetrics() {
+  }
+
+  /**
+   * Returns the metrics of an endpoint, such as {@code /events.json}, or null if the endpoint
+   * has not been called.
+   */
+  public EndpointMetrics getEndpoint(String endpoint) {
+    return endpoints.get(endpoint);
+  }
+
+  /**
+   * Returns the metrics of all endpoints called so far, by endpoint.
+   */
+  public Map<String, EndpointMetrics> getEndpoints() {
+    return new TreeMap<>(endpoints);
+  }
+
+  void addListener(MetricsListener listener) {
+    listeners.add(listener);
+  }
+
+  void removeListener(MetricsListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Registers an MBean for every endpoint, including endpoints called later.
+   *
+   * @param clientName distinguishes this client from other clients in the same JVM
+   * @throws JMException if an MBean cannot be registered, for example because the name is taken
+   */
+  public synchronized void registerMBeans(String clientName) throws JMException {
+    if (jmxName != null) {
+      throw new IllegalStateException("MBeans already registered as " + jmxName);
+    }
+    jmxName = clientName;
+    try {
+      for (EndpointMetrics metrics : endpoints.values()) {
+        register(metrics);
+      }
+    } catch (JMException e) {
+      unregisterMBeans();
+      throw e;
+    }
+  }
+
+  /**
+   * Unregisters the MBeans registered by {@link #registerMBeans(String)}.
+   */
+  public synchronized void unregisterMBeans() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : registered) {
+      try {
+        server.unregisterMBean(name);
+      } catch (JMException e) {
+        // already gone
+      }
+    }
+    registered.clear();
+    jmxName = null;
+  }
+
+  private void register(EndpointMetrics metrics) throws JMException {
+    ObjectName name = new ObjectName(jmxDomain + ":type=EndpointMetrics,client="
+        + ObjectName.quote(jmxName) + ",endpoint=" + ObjectName.quote(metrics.getEndpoint()));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+    registered.add(name);
+  }
+
+  private EndpointMetrics endpoint(String endpoint) {
+    EndpointMetrics metrics = endpoints.get(endpoint);
+    if (metrics == null) {
+      EndpointMetrics created = new EndpointMetrics(endpoint);
+      metrics = endpoints.putIfAbsent(endpoint, created);
+      if (metrics == null) {
+        metrics = created;
+        synchronized (this) {
+          if (jmxName != null) {
+            try {
+              register(created);
+            } catch (JMException e) {
+              // metrics remain available through getEndpoint
+            }
+          }
+        }
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Counts a retry of a request to an endpoint.
+   */
+  void onRetry(String endpoint) {
+    endpoint(endpoint).onRetry();
+  }
+
+  /**
+   * Counts a hedge request to an endpoint.
+   */
+  void onHedge(String endpoint) {
+    endpoint(endpoint).onHedge();
+  }
+
+  /**
+   * Starts measuring a request that is about to be sent.
+   */
+  Sample start(String endpoint, HttpRequest request) {
+    long requestBytes = request.getBody() != null ? request.getBody().length : 0;
+    EndpointMetrics metrics = endpoint(endpoint);
+    metrics.onSend(requestBytes);
+    return new Sample(metrics, requestBytes);
+  }
+
+  /**
+   * Measurements of a single request. The client records the outcome before the request's
+   * future completes, so metrics are up to date when a caller sees the response; the outcomes of
+   * requests that end otherwise, such as cancelled ones, are recorded by {@link
+   * #complete(FutureAPIResponse)}.
+   */
+  class Sample {
+    private final EndpointMetrics metrics;
+    private final long startNanos = System.nanoTime();
+    private final long bytesSent;
+    private final AtomicBoolean recorded = new AtomicBoolean();
+    // set from the response before it is recorded
+    volatile long bytesReceived;
+
+    Sample(EndpointMetrics metrics, long bytesSent) {
+      this.metrics = metrics;
+      this.bytesSent = bytesSent;
+    }
+
+    /**
+     * Records a response.
+     */
+    void respond(int status) {
+      if (!recorded.compareAndSet(false, true)) {
+        return;
+      }
+      long latencyNanos = System.nanoTime() - startNanos;
+      metrics.onResponse(status, latencyNanos, bytesReceived);
+      for (MetricsListener listener : listeners) {
+        try {
+          listener.onResponse(metrics.getEndpoint(), status, latencyNanos, bytesSent,
+              bytesReceived);
+        } catch (RuntimeException e) {
+          // a broken listener must not affect requests
+        }
+      }
+    }
+
+    /**
+     * Records a request that failed without a response.
+     */
+    void fail(Throwable cause) {
+      if (!recorded.compareAndSet(false, true)) {
+        return;
+      }
+      long latencyNanos = System.nanoTime() - startNanos;
+      metrics.onFailure(latencyNanos);
+      for (MetricsListener listener : listeners) {
+        try {
+          listener.onFailure(metrics.getEndpoint(), cause, latencyNanos);
+        } catch (RuntimeException e) {
+          // a broken listener must not affect requests
+        }
+      }
+    }
+
+    /**
+     * Records the outcome of a completed request, unless it is already recorded.
+     */
+    void complete(FutureAPIResponse response) {
+      if (recorded.get()) {
+        return;
+      }
+      if (response.isCancelled()) {
+        if (recorded.compareAndSet(false, true)) {
+          metrics.onCancel();
+        }
+        return;
+      }
+      try {
+        respond(response.get().getStatus());
+      } catch (InterruptedException | ExecutionException e) {
+        fail(e.getCause() != null ? e.getCause() : e);
+      }
+    }
+  }
+}
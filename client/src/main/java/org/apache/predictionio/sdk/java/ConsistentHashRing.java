@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * ConsistentHashRing maps keys to nodes so that adding or removing a node only moves the keys of
+ * that node. Each node is placed on the ring at a number of virtual points to spread keys evenly.
+ * Lookups are lock-free; changes copy the ring.
+ */
+class ConsistentHashRing {
+
+  private static final HashFunction hash = Hashing.murmur3_128();
+
+  private final int virtualNodes;
+  private volatile NavigableMap<Long, String> ring = new TreeMap<>();
+
+  /**
+   * @param virtualNodes number of points on the ring per node
+   */
+  ConsistentHashRing(int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("at least one virtual node is required");
+    }
+    this.virtualNodes = virtualNodes;
+  }
+
+  ConsistentHashRing(int virtualNodes, Collection<String> nodes) {
+    this(virtualNodes);
+    for (String node : nodes) {
+      add(node);
+    }
+  }
+
+  synchronized void add(String node) {
+    TreeMap<Long, String> copy = new TreeMap<>(ring);
+    for (int i = 0; i < virtualNodes; i++) {
+      copy.put(hash(node + "#" + i), node);
+    }
+    ring = copy;
+  }
+
+  synchronized void remove(String node) {
+    TreeMap<Long, String> copy = new TreeMap<>(ring);
+    for (int i = 0; i < virtualNodes; i++) {
+      long point = hash(node + "#" + i);
+      if (node.equals(copy.get(point))) {
+        copy.remove(point);
+      }
+    }
+    ring = copy;
+  }
+
+  /**
+   * Returns the node owning a key, or null if the ring is empty.
+   */
+  String get(String key) {
+    return get(key, null);
+  }
+
+  /**
+   * Returns the first node at or after the key's position on the ring that the filter accepts,
+   * or null if there is none.
+   *
+   * @param filter accepts nodes, or null to accept all nodes
+   */
+  String get(String key, Predicate<String> filter) {
+    NavigableMap<Long, String> current = ring;
+    if (current.isEmpty()) {
+      return null;
+    }
+    long point = hash(key);
+    for (Map.Entry<Long, String> entry : current.tailMap(point, true).entrySet()) {
+      if (filter == null || filter.apply(entry.getValue())) {
+        return entry.getValue();
+      }
+    }
+    for (Map.Entry<Long, String> entry : current.headMap(point, false).entrySet()) {
+      if (filter == null || filter.apply(entry.getValue())) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static long hash(String value) {
+    return hash.hashString(value, Charsets.UTF_8).asLong();
+  }
+}
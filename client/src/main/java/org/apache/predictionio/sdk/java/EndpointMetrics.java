@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request counts, error counts, transfer sizes and latencies of one API endpoint. Latencies are
+ * measured from sending a request to receiving the whole response, and do not include the time a
+ * request waits in the client's request queue.
+ *
+ * <p>A response counts as an error if its status is 400 or above; failed requests without a
+ * response are counted as errors with status 0. Cancelled requests are not errors and do not
+ * contribute to latencies. Every retry and hedge counts as a request of its own, and also towards
+ * the retry or hedge count.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+
+  private final String endpoint;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong errorCount = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong hedgeCount = new AtomicLong();
+  private final AtomicLong cancelCount = new AtomicLong();
+  private final ConcurrentMap<Integer, AtomicLong> errorCountsByStatus =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger inFlightCount = new AtomicInteger();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  EndpointMetrics(String endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * Returns the endpoint, such as {@code /events.json}.
+   */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public long getErrorCount() {
+    return errorCount.get();
+  }
+
+  @Override
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  @Override
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  @Override
+  public long getCancelCount() {
+    return cancelCount.get();
+  }
+
+  @Override
+  public Map<Integer, Long> getErrorCountsByStatus() {
+    Map<Integer, Long> counts = new TreeMap<>();
+    for (Map.Entry<Integer, AtomicLong> entry : errorCountsByStatus.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().get());
+    }
+    return counts;
+  }
+
+  @Override
+  public int getInFlightCount() {
+    return inFlightCount.get();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  @Override
+  public double getMeanLatencyMillis() {
+    return latency.getMeanMillis();
+  }
+
+  @Override
+  public double getMaxLatencyMillis() {
+    return latency.getMaxMillis();
+  }
+
+  @Override
+  public double getP50LatencyMillis() {
+    return latency.getPercentileMillis(0.5);
+  }
+
+  @Override
+  public double getP99LatencyMillis() {
+    return latency.getPercentileMillis(0.99);
+  }
+
+  @Override
+  public double getP999LatencyMillis() {
+    return latency.getPercentileMillis(0.999);
+  }
+
+  /**
+   * Returns the latency in milliseconds below which the given fraction of requests completed.
+   *
+   * @param quantile a fraction between 0 and 1, such as 0.99
+   */
+  public double getLatencyPercentileMillis(double quantile) {
+    return latency.getPercentileMillis(quantile);
+  }
+
+  LatencyHistogram latency() {
+    return latency;
+  }
+
+  void onSend(long requestBytes) {
+    requestCount.incrementAndGet();
+    inFlightCount.incrementAndGet();
+    bytesSent.addAndGet(requestBytes);
+  }
+
+  void onRetry() {
+    retryCount.incrementAndGet();
+  }
+
+  void onHedge() {
+    hedgeCount.incrementAndGet();
+  }
+
+  void onCancel() {
+    inFlightCount.decrementAndGet();
+    cancelCount.incrementAndGet();
+  }
+
+  void onResponse(int status, long latencyNanos, long responseBytes) {
+    inFlightCount.decrementAndGet();
+    bytesReceived.addAndGet(responseBytes);
+    latency.record(latencyNanos);
+    if (status >= 400) {
+      countError(status);
+    }
+  }
+
+  void onFailure(long latencyNanos) {
+    inFlightCount.decrementAndGet();
+    latency.record(latencyNanos);
+    countError(0);
+  }
+
+  private void countError(int status) {
+    errorCount.incrementAndGet();
+    AtomicLong count = errorCountsByStatus.get(status);
+    if (count == null) {
+      AtomicLong created = new AtomicLong();
+      count = errorCountsByStatus.putIfAbsent(status, created);
+      if (count == null) {
+        count = created;
+      }
+    }
+    count.incrementAndGet();
+  }
+}
@@ -17,14 +17,22 @@
 
 package org.apache.predictionio.sdk.java;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.JsonObject;
-import com.ning.http.client.RequestBuilder;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import org.joda.time.DateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * EngineClient contains generic methods sendQuery() and sendQueryAsFuture() for sending queries.
@@ -36,6 +44,49 @@ public class EngineClient extends BaseClient {
 
   private static final String defaultEngineUrl = "http://localhost:8000";
 
+  private static final String queriesEndpoint = "/queries.json";
+
+  // latencies measured before the percentile is trusted for hedging
+  private static final int minHedgeSamples = 100;
+
+  // the hedge delay is taken from the query latencies of the last one or two windows
+  private static final long hedgeWindowNanos = TimeUnit.MINUTES.toNanos(1);
+
+  // replaced by the multi-replica constructor
+  private volatile ReplicaSet replicas = new ReplicaSet(Collections.singletonList(apiUrl));
+
+  // name of the query field whose value selects a replica by consistent hashing, or null
+  private volatile String affinityField;
+
+  private volatile QueryCache queryCache;
+
+  private volatile boolean coalesceQueries;
+
+  // queries currently in flight, by canonical JSON form, when coalescing is enabled
+  private final ConcurrentMap<String, CoalescedQuery> inFlightQueries =
+      new ConcurrentHashMap<>();
+
+  // hedging is off while hedgeQuantile is 0
+  private volatile double hedgeQuantile;
+  private volatile long hedgeMinDelayMillis;
+  private volatile double maxHedgeRatio;
+  private final AtomicLong hedgedQueryCount = new AtomicLong();
+  private final AtomicLong hedgeCount = new AtomicLong();
+  // replaced when the window ends; rotated under the lock, read without it
+  private final Object hedgeWindowLock = new Object();
+  private volatile LatencyHistogram hedgeWindow = new LatencyHistogram();
+  private volatile LatencyHistogram previousHedgeWindow = new LatencyHistogram();
+  private volatile long hedgeWindowStart = System.nanoTime();
+
+  private final ResponseParser<JsonObject> queryResultParser = new ResponseParser<JsonObject>() {
+    public JsonObject parse(APIResponse response) throws IOException {
+      if (response.getStatus() != HTTP_OK) {
+        throw new APIException(response.getStatus(), response.getMessage());
+      }
+      return (JsonObject) parser.parse(response.getReader());
+    }
+  };
+
   /**
    * Instantiates a PredictionIO RESTful API Engine Client using default values for API URL and
    * default values in BaseClient.
@@ -91,23 +142,465 @@ public class EngineClient extends BaseClient {
   }
 
   /**
-   * Sends a query asynchronously.
+   * Instantiates a PredictionIO RESTful API Engine Client that spreads queries over several
+   * servers running the same engine. {@link #getStatus()} asks the first server.
+   *
+   * @param engineUrls the URLs of the engine servers
+   * @param threadLimit maximum number of simultaneous threads (connections) to the API
+   * @param queueSize size of the queue
+   * @param timeout timeout in seconds for the connections
+   */
+  public EngineClient(List<String> engineUrls, int threadLimit, int queueSize, int timeout) {
+    super(firstUrl(engineUrls), threadLimit, queueSize, timeout);
+    this.replicas = new ReplicaSet(engineUrls);
+  }
+
+  private static String firstUrl(List<String> engineUrls) {
+    if (engineUrls.isEmpty()) {
+      throw new IllegalArgumentException("at least one engine URL is required");
+    }
+    return engineUrls.get(0);
+  }
+
+  /**
+   * Sets how a server is picked for each query when there are several. The default is {@link
+   * LoadBalancing#POWER_OF_TWO_CHOICES}.
+   */
+  public void setLoadBalancing(LoadBalancing loadBalancing) {
+    replicas.setLoadBalancing(loadBalancing);
+  }
+
+  /**
+   * Sends queries with the same value in the given field, such as {@code "user"}, to the same
+   * server as long as it is healthy, so that server-side caches are used well. Servers are
+   * assigned by consistent hashing, so adding or losing a server only moves the values of that
+   * server. Queries without the field are load balanced. Pass null to turn affinity off.
+   */
+  public void setAffinityKey(String queryField) {
+    this.affinityField = queryField;
+  }
+
+  /**
+   * Sets when a server stops receiving queries: after {@code failureThreshold} consecutive
+   * failures, or when its average latency exceeds {@code slowFactor} times the average of the
+   * other servers. It receives queries again after {@code ejectMillis}, or earlier if it passes
+   * a health check. The defaults are 3 failures, a factor of 3 and 30 seconds.
+   */
+  public void setEjection(int failureThreshold, double slowFactor, long ejectMillis) {
+    replicas.setEjection(failureThreshold, slowFactor, ejectMillis);
+  }
+
+  /**
+   * Sends a status request to every server at a fixed interval. Servers that fail it stop
+   * receiving queries until they pass it again. The status requests bypass the request queue, so
+   * servers are checked even while {@code threadLimit} queries are in flight; the default
+   * transport keeps one connection per server beyond {@code threadLimit} for them.
+   *
+   * @param intervalMillis time in milliseconds between health checks
+   */
+  public void enableHealthChecks(long intervalMillis) {
+    if (intervalMillis <= 0) {
+      throw new IllegalArgumentException("interval must be positive");
+    }
+    replicas.startHealthChecks(this, intervalMillis);
+  }
+
+  /**
+   * Returns the URLs of all engine servers.
+   */
+  public List<String> getEngineUrls() {
+    return replicas.getUrls();
+  }
+
+  @Override
+  List<String> serverUrls() {
+    return replicas.getUrls();
+  }
+
+  @Override
+  int connectionsPerServer() {
+    // health checks bypass the request queue, so they get a connection of their own
+    return threadLimit + 1;
+  }
+
+  /**
+   * Returns the URLs of the engine servers currently receiving queries.
+   */
+  public List<String> getHealthyEngineUrls() {
+    return replicas.getHealthyUrls();
+  }
+
+  /**
+   * Turns on caching of query results. Queries are considered identical when their JSON forms
+   * with keys in sorted order are equal. Only successful results are cached.
+   *
+   * @param ttlMillis time in milliseconds a result is served from the cache after it was received
+   * @param maxEntries maximum number of cached results
+   * @param maxBytes maximum approximate size in bytes of the cache, or 0 for no size limit
+   */
+  public synchronized void enableQueryCache(long ttlMillis, int maxEntries, long maxBytes) {
+    if (queryCache != null) {
+      throw new IllegalStateException("query cache is already enabled");
+    }
+    queryCache = new QueryCache(ttlMillis, maxEntries, maxBytes);
+  }
+
+  /**
+   * Returns the query cache, or null if caching is not enabled.
+   */
+  public QueryCache getQueryCache() {
+    return queryCache;
+  }
+
+  /**
+   * Turns on coalescing of identical queries. While a query is in flight, identical queries (as
+   * defined for {@link #enableQueryCache(long, int, long)}) do not send a new request but share
+   * the pending response. Every caller gets its own future and its own copy of the response;
+   * cancelling one caller's future does not affect the others, and the request is aborted once
+   * every caller has cancelled.
+   *
+   * @param coalesce whether identical in-flight queries share a single request
+   */
+  public void setCoalesceQueries(boolean coalesce) {
+    this.coalesceQueries = coalesce;
+  }
+
+  /**
+   * Turns on hedged queries. If a query has no response after the given percentile of the query
+   * latencies of the last minute or two, a second copy is sent, and whichever response arrives
+   * first is returned; the other request is cancelled. This trades a small amount of extra load
+   * for a shorter latency tail, and is safe because queries do not change any state. The hedge
+   * competes with other requests for the {@code threadLimit} connections, so hedging needs a
+   * thread limit above 1; it is skipped when all connections are in use, rather than queued.
+   *
+   * @param quantile the latency percentile after which a query is hedged, such as 0.95
+   * @param minDelayMillis minimum delay in milliseconds before hedging; also the delay used until
+   *     enough latencies have been measured
+   * @param maxHedgeRatio maximum fraction of queries that may be hedged, such as 0.05
+   */
+  public void enableHedging(double quantile, long minDelayMillis, double maxHedgeRatio) {
+    if (quantile <= 0 || quantile >= 1) {
+      throw new IllegalArgumentException("quantile must be between 0 and 1");
+    }
+    if (minDelayMillis < 0 || maxHedgeRatio < 0) {
+      throw new IllegalArgumentException("delay and ratio must not be negative");
+    }
+    this.hedgeMinDelayMillis = minDelayMillis;
+    this.maxHedgeRatio = maxHedgeRatio;
+    this.hedgeQuantile = quantile;
+  }
+
+  /**
+   * Turns off hedged queries.
+   */
+  public void disableHedging() {
+    this.hedgeQuantile = 0;
+  }
+
+  /**
+   * Returns the number of hedge requests sent.
+   */
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  /**
+   * Sends a query asynchronously. If the query cache is enabled and holds a result for an
+   * identical query, the returned future is already completed with that result. If coalescing is
+   * enabled and an identical query is in flight, the returned future completes with a copy of
+   * its response.
    */
   public FutureAPIResponse sendQueryAsFuture(Map<String, Object> query)
       throws ExecutionException, InterruptedException, IOException {
-    RequestBuilder builder = new RequestBuilder("POST");
-    builder.setUrl(apiUrl + "/queries.json");
+    return startQuery(query);
+  }
+
+  private FutureAPIResponse startQuery(Map<String, Object> query) throws IOException {
+    final QueryCache cache = queryCache;
+    boolean coalesce = coalesceQueries;
+
+    // DateTime values are written in ISO 8601 format
+    Utf8JsonWriter writer = Utf8JsonWriter.get();
+    if (cache != null || coalesce) {
+      writer.sortKeys();
+    }
+    writer.writeMap(query);
+    byte[] requestJson = writer.toByteArray();
+
+    String field = affinityField;
+    Object affinityValue = field != null ? query.get(field) : null;
+    String affinityKey = affinityValue != null ? affinityValue.toString() : null;
 
-    // handle DateTime separately
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeAdapter());
-    Gson gson = gsonBuilder.create();
+    if (cache == null && !coalesce) {
+      return sendQueryRequest(requestJson, affinityKey);
+    }
+
+    final String key = new String(requestJson, StandardCharsets.UTF_8);
+    if (cache != null) {
+      APIResponse cached = cache.get(key);
+      if (cached != null) {
+        return new FutureAPIResponse(Futures.immediateFuture(cached));
+      }
+    }
+
+    if (!coalesce) {
+      // cached before the caller sees it; the caller owns the request, so cancelling aborts it
+      final FutureAPIResponse response = sendQueryRequest(requestJson, affinityKey);
+      final SettableFuture<APIResponse> promise = SettableFuture.create();
+      response.addListener(new Runnable() {
+        public void run() {
+          if (response.isCancelled()) {
+            promise.cancel(false);
+            return;
+          }
+          try {
+            APIResponse result = response.get();
+            if (result.getStatus() == HTTP_OK) {
+              cache.put(key, result);
+            }
+            promise.set(result);
+          } catch (InterruptedException | ExecutionException e) {
+            promise.setException(e.getCause() != null ? e.getCause() : e);
+          }
+        }
+      }, MoreExecutors.directExecutor());
+      promise.addListener(new Runnable() {
+        public void run() {
+          if (promise.isCancelled()) {
+            response.cancel(true);
+          }
+        }
+      }, MoreExecutors.directExecutor());
+      return new FutureAPIResponse(promise);
+    }
+
+    final CoalescedQuery shared = new CoalescedQuery(key);
+    while (true) {
+      CoalescedQuery inFlight = inFlightQueries.putIfAbsent(key, shared);
+      if (inFlight == null) {
+        break;
+      }
+      FutureAPIResponse follower = inFlight.follow();
+      if (follower != null) {
+        return follower;
+      }
+      // every caller of that query has cancelled
+      inFlightQueries.remove(key, inFlight);
+    }
 
-    String requestJsonString = gson.toJson(query);
-    builder.setBody(requestJsonString);
-    builder.setHeader("Content-Type", "application/json");
-    builder.setHeader("Content-Length", "" + requestJsonString.length());
-    return new FutureAPIResponse(client.executeRequest(builder.build(), getHandler()));
+    FutureAPIResponse own = shared.follow();
+    final FutureAPIResponse response;
+    try {
+      response = sendQueryRequest(requestJson, affinityKey);
+    } catch (IOException | RuntimeException e) {
+      inFlightQueries.remove(key, shared);
+      shared.result.setException(e);
+      throw e;
+    }
+    shared.start(response);
+    response.addListener(new Runnable() {
+      public void run() {
+        inFlightQueries.remove(key, shared);
+        if (response.isCancelled()) {
+          shared.result.cancel(false);
+          return;
+        }
+        try {
+          APIResponse result = response.get();
+          if (cache != null && result.getStatus() == HTTP_OK) {
+            cache.put(key, result);
+          }
+          shared.result.set(result);
+        } catch (InterruptedException | ExecutionException e) {
+          // failures are reported to the callers and never cached
+          shared.result.setException(e.getCause() != null ? e.getCause() : e);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+    return own;
+  }
+
+  /**
+   * A query request shared by identical queries. Every caller gets its own future, completed with
+   * its own copy of the response; the request is aborted only once every caller has cancelled.
+   */
+  private final class CoalescedQuery {
+
+    final String key;
+    final SettableFuture<APIResponse> result = SettableFuture.create();
+
+    // guarded by this
+    private int callers;
+    private boolean abandoned;
+    private FutureAPIResponse request;
+
+    CoalescedQuery(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Returns the future of a new caller, or null if every earlier caller has cancelled.
+     */
+    FutureAPIResponse follow() {
+      synchronized (this) {
+        if (abandoned) {
+          return null;
+        }
+        callers++;
+      }
+      final SettableFuture<APIResponse> own = SettableFuture.create();
+      own.addListener(new Runnable() {
+        public void run() {
+          if (own.isCancelled()) {
+            leave();
+          }
+        }
+      }, MoreExecutors.directExecutor());
+      Futures.addCallback(result, new FutureCallback<APIResponse>() {
+        public void onSuccess(APIResponse response) {
+          // APIResponse is mutable, so every caller gets its own copy
+          own.set(response.copy());
+        }
+
+        public void onFailure(Throwable t) {
+          own.setException(t);
+        }
+      }, MoreExecutors.directExecutor());
+      return new FutureAPIResponse(own);
+    }
+
+    void start(FutureAPIResponse request) {
+      boolean abort;
+      synchronized (this) {
+        this.request = request;
+        abort = abandoned;
+      }
+      if (abort) {
+        request.cancel(true);
+      }
+    }
+
+    private void leave() {
+      FutureAPIResponse abort;
+      synchronized (this) {
+        if (--callers > 0 || result.isDone()) {
+          return;
+        }
+        abandoned = true;
+        abort = request;
+      }
+      inFlightQueries.remove(key, this);
+      if (abort != null) {
+        abort.cancel(true);
+      }
+    }
+  }
+
+  private FutureAPIResponse sendQueryRequest(final byte[] requestJson, final String affinityKey)
+      throws IOException {
+    double quantile = hedgeQuantile;
+    if (quantile == 0) {
+      return sendToReplica(replicas.choose(affinityKey, null), requestJson, false);
+    }
+    hedgedQueryCount.incrementAndGet();
+    return new HedgedCall() {
+      private volatile ReplicaSet.Replica primary;
+
+      FutureAPIResponse send(boolean hedge) throws IOException {
+        // the hedge goes to another replica if there is one
+        ReplicaSet.Replica replica = replicas.choose(affinityKey, primary);
+        if (primary == null) {
+          primary = replica;
+        }
+        return sendToReplica(replica, requestJson, hedge);
+      }
+
+      boolean mayHedge() {
+        return hedgeCount.get() + 1 <= maxHedgeRatio * hedgedQueryCount.get();
+      }
+
+      void onHedge() {
+        hedgeCount.incrementAndGet();
+        metrics.onHedge(queriesEndpoint);
+      }
+    }.start(this, hedgeDelayMillis(quantile));
+  }
+
+  /**
+   * Sends a query to a replica. A hedge is only sent if a slot is free, and null is returned
+   * otherwise.
+   */
+  private FutureAPIResponse sendToReplica(final ReplicaSet.Replica replica, byte[] requestJson,
+      boolean hedge) throws IOException {
+    final ReplicaSet replicaSet = replicas;
+    replicaSet.onSend(replica);
+    final long start = System.nanoTime();
+    final FutureAPIResponse response;
+    try {
+      HttpRequest request = jsonRequest("POST", replica.url + queriesEndpoint, requestJson);
+      response = hedge ? tryExecute(queriesEndpoint, request, true, false)
+          : execute(queriesEndpoint, request, true);
+    } catch (IOException | RuntimeException e) {
+      // not sent, so it says nothing about the replica
+      replicaSet.onComplete(replica, null, 0, true);
+      throw e;
+    }
+    if (response == null) {
+      replicaSet.onComplete(replica, null, 0, true);
+      return null;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        APIResponse result = null;
+        if (!response.isCancelled()) {
+          try {
+            result = response.get();
+          } catch (InterruptedException | ExecutionException e) {
+            // counted as a failure of the replica
+          }
+        }
+        long nanos = System.nanoTime() - start;
+        if (result != null) {
+          recentQueryLatencies().record(nanos);
+        }
+        replicaSet.onComplete(replica, result, nanos, response.isCancelled());
+      }
+    }, MoreExecutors.directExecutor());
+    return response;
+  }
+
+  private long hedgeDelayMillis(double quantile) {
+    LatencyHistogram latencies = recentQueryLatencies();
+    if (latencies.getCount() < minHedgeSamples) {
+      // early in a window, the previous one is more representative
+      latencies = previousHedgeWindow;
+      if (latencies.getCount() < minHedgeSamples) {
+        return hedgeMinDelayMillis;
+      }
+    }
+    long delayMillis = TimeUnit.MICROSECONDS.toMillis(latencies.getPercentileMicros(quantile));
+    return Math.max(delayMillis, hedgeMinDelayMillis);
+  }
+
+  /**
+   * Returns the histogram of the current window of query latencies, starting a new window if the
+   * current one has ended. Latencies older than two windows are forgotten, so the hedge delay
+   * follows the latencies of the last few minutes rather than those since the client was created.
+   */
+  private LatencyHistogram recentQueryLatencies() {
+    long now = System.nanoTime();
+    if (now - hedgeWindowStart >= hedgeWindowNanos) {
+      synchronized (hedgeWindowLock) {
+        long elapsed = now - hedgeWindowStart;
+        if (elapsed >= hedgeWindowNanos) {
+          previousHedgeWindow = elapsed >= 2 * hedgeWindowNanos ? new LatencyHistogram()
+              : hedgeWindow;
+          hedgeWindow = new LatencyHistogram();
+          hedgeWindowStart = now;
+        }
+      }
+    }
+    return hedgeWindow;
   }
 
   /**
@@ -123,13 +616,19 @@ public class EngineClient extends BaseClient {
    */
   public JsonObject sendQuery(FutureAPIResponse response)
       throws ExecutionException, InterruptedException, IOException {
-    int status = response.get().getStatus();
-    String message = response.get().getMessage();
+    return queryResultParser.parse(response.get());
+  }
 
-    if (status != HTTP_OK) {
-      throw new IOException(status + " " + message);
-    }
-    return ((JsonObject) parser.parse(message));
+  /**
+   * Sends a query, like {@link #sendQueryAsFuture(Map)}, and returns a future completed with the
+   * query result. The future fails with an {@link APIException} if the engine does not answer
+   * with a result.
+   *
+   * @since 0.13.1
+   */
+  public ListenableFuture<JsonObject> sendQueryAsync(Map<String, Object> query)
+      throws IOException {
+    return parseAsync(startQuery(query), queryResultParser);
   }
 
 }
@@ -18,8 +18,7 @@
 package org.apache.predictionio.sdk.java;
 
 import com.google.common.collect.Maps;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import org.joda.time.DateTime;
 
@@ -157,10 +156,6 @@ public class Event {
 
   @Override
   public String toString() {
-    // handle DateTime separately
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeAdapter());
-    Gson gson = gsonBuilder.create();
-    return gson.toJson(this); // works when there are no generic types
+    return new String(StreamingEventCodec.getInstance().encode(this), StandardCharsets.UTF_8);
   }
 }
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EventBatcher collects events passed to {@link EventClient#createEventAsFuture(Event)} and sends
+ * them to the batch events endpoint once either the batch size or the linger time is reached.
+ * Every caller still receives its own {@link FutureAPIResponse}, which is completed with the
+ * matching entry of the batch response.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+class EventBatcher {
+
+  // the event server rejects batch requests with more events than this
+  static final int MAX_BATCH_SIZE = 50;
+
+  private final EventClient client;
+  private final int maxBatchSize;
+  private final LinkedBlockingQueue<PendingEvent> pending = new LinkedBlockingQueue<>();
+  private final Set<FutureAPIResponse> inFlight =
+      Collections.newSetFromMap(new ConcurrentHashMap<FutureAPIResponse, Boolean>());
+  private final ScheduledFuture<?> lingerTask;
+  // guarded by this
+  private boolean closed;
+  // a batch the linger timer could not send because the request queue was full; sent first
+  private List<PendingEvent> unsent;
+
+  /**
+   * @param client the client used to send batch requests
+   * @param maxBatchSize maximum number of events per batch request, between 1 and 50
+   * @param lingerMillis maximum time in milliseconds an event waits before its batch is sent
+   */
+  EventBatcher(EventClient client, int maxBatchSize, long lingerMillis) {
+    if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("batch size must be between 1 and " + MAX_BATCH_SIZE);
+    }
+    if (lingerMillis <= 0) {
+      throw new IllegalArgumentException("linger time must be positive");
+    }
+    this.client = client;
+    this.maxBatchSize = maxBatchSize;
+    this.lingerTask = client.scheduler().scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        // the scheduler thread must not block, so batches are only sent while the request queue
+        // admits them at once; the rest waits for the next run
+        while (sendBatch(false)) {
+        }
+      }
+    }, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues an event for the next batch.
+   *
+   * @return a future that is completed with this event's entry of the batch response
+   * @throws IllegalStateException if the batcher is closed
+   */
+  FutureAPIResponse add(Event event) {
+    SettableFuture<APIResponse> future = SettableFuture.create();
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("client is closed");
+      }
+      pending.add(new PendingEvent(event, future));
+    }
+    if (pending.size() >= maxBatchSize) {
+      sendBatch(true);
+    }
+    return new FutureAPIResponse(future);
+  }
+
+  /**
+   * Sends all queued events without waiting for the linger time.
+   */
+  void flush() {
+    while (sendBatch(true)) {
+    }
+  }
+
+  /**
+   * Stops the linger timer, sends all queued events and waits for the outstanding batch requests
+   * to complete.
+   */
+  void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    lingerTask.cancel(false);
+    flush();
+    for (FutureAPIResponse batch : inFlight) {
+      try {
+        batch.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        // already reported to the callers through their own futures
+      }
+    }
+  }
+
+  /**
+   * Sends the next batch.
+   *
+   * @param wait whether to wait for the request queue; without it, a batch the queue does not
+   *     admit at once is kept and sent first next time, unless the batcher is closed
+   * @return false if there was nothing to send or the batch was kept
+   */
+  private boolean sendBatch(boolean wait) {
+    List<PendingEvent> taken;
+    synchronized (this) {
+      taken = unsent;
+      unsent = null;
+    }
+    if (taken == null) {
+      taken = new ArrayList<>(maxBatchSize);
+      pending.drainTo(taken, maxBatchSize);
+      if (taken.isEmpty()) {
+        return false;
+      }
+    }
+    final List<PendingEvent> batch = taken;
+    List<Event> events = new ArrayList<>(batch.size());
+    for (PendingEvent p : batch) {
+      events.add(p.event);
+    }
+
+    FutureAPIResponse sent;
+    try {
+      sent = wait ? client.createEventsAsFuture(events) : client.tryCreateEventsAsFuture(events);
+      if (sent == null) {
+        synchronized (this) {
+          if (!closed) {
+            unsent = batch;
+            return false;
+          }
+        }
+        // close() may already have flushed, so nobody else would send this batch
+        sent = client.createEventsAsFuture(events);
+      }
+    } catch (IOException | RuntimeException e) {
+      for (PendingEvent p : batch) {
+        p.future.setException(e);
+      }
+      return true;
+    }
+    final FutureAPIResponse response = sent;
+    inFlight.add(response);
+    response.addListener(new Runnable() {
+      public void run() {
+        inFlight.remove(response);
+        complete(batch, response);
+      }
+    }, MoreExecutors.directExecutor());
+    return true;
+  }
+
+  private void complete(List<PendingEvent> batch, FutureAPIResponse response) {
+    APIResponse batchResponse;
+    try {
+      batchResponse = response.get();
+    } catch (InterruptedException | ExecutionException e) {
+      for (PendingEvent p : batch) {
+        p.future.setException(e.getCause() != null ? e.getCause() : e);
+      }
+      return;
+    }
+
+    if (batchResponse.getStatus() != BaseClient.HTTP_OK) {
+      // the whole batch was rejected, e.g. because of an invalid access key
+      for (PendingEvent p : batch) {
+        p.future.set(batchResponse);
+      }
+      return;
+    }
+
+    BatchResult results;
+    try {
+      results = BatchResult.parse(batchResponse.getReader(), batch.size());
+    } catch (IOException | RuntimeException e) {
+      for (PendingEvent p : batch) {
+        p.future.setException(e);
+      }
+      return;
+    }
+    boolean discard = client.isDiscardingResponseBodies();
+    for (int i = 0; i < batch.size(); i++) {
+      int status = i < results.size() ? results.getStatus(i) : 0;
+      if (discard && status / 100 == 2) {
+        batch.get(i).future.set(new APIResponse(status, null, StandardCharsets.UTF_8));
+      } else if (status != 0) {
+        batch.get(i).future.set(new APIResponse(status, results.toJson(i)));
+      } else {
+        batch.get(i).future.setException(
+            new IOException("missing batch response entry for event " + i));
+      }
+    }
+  }
+
+  private static class PendingEvent {
+    final Event event;
+    final SettableFuture<APIResponse> future;
+
+    PendingEvent(Event event, SettableFuture<APIResponse> future) {
+      this.event = event;
+      this.future = future;
+    }
+  }
+}
@@ -18,15 +18,9 @@
 package org.apache.predictionio.sdk.java;
 
 import com.google.common.collect.Maps;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.JsonObject;
-import com.ning.http.client.Request;
-import com.ning.http.client.RequestBuilder;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
@@ -50,6 +44,45 @@ public class EventClient extends BaseClient {
 
   private final String accessKey;
 
+  private volatile EventCodec codec = StreamingEventCodec.getInstance();
+
+  private volatile EventBatcher batcher;
+
+  private volatile boolean discardResponseBodies;
+
+  private final ResponseParser<String> eventIdParser = new ResponseParser<String>() {
+    public String parse(APIResponse response) throws IOException {
+      if (response.getStatus() != HTTP_CREATED) {
+        throw new APIException(response.getStatus(), response.getMessage());
+      }
+      String message = response.getMessage();
+      if (message.isEmpty()) {
+        // the body was discarded
+        return null;
+      }
+      return ((JsonObject) parser.parse(message)).get("eventId").getAsString();
+    }
+  };
+
+  private final ResponseParser<BatchResult> batchResultParser =
+      new ResponseParser<BatchResult>() {
+        public BatchResult parse(APIResponse response) throws IOException {
+          if (response.getStatus() != HTTP_OK) {
+            throw new APIException(response.getStatus(), response.getMessage());
+          }
+          return BatchResult.parse(response.getReader(), EventBatcher.MAX_BATCH_SIZE);
+        }
+      };
+
+  private final ResponseParser<Event> eventParser = new ResponseParser<Event>() {
+    public Event parse(APIResponse response) throws IOException {
+      if (response.getStatus() != HTTP_OK) {
+        throw new APIException(response.getStatus(), response.getMessage());
+      }
+      return codec.decode(response.getMessage());
+    }
+  };
+
   /**
    * Instantiate a PredictionIO RESTful API Event Client using default values for API URL and
    * default values in {@link BaseClient}.
@@ -117,18 +150,99 @@ public class EventClient extends BaseClient {
   }
 
   /**
-   * Sends an asynchronous create event request to the API.
+   * Sets the codec used to encode events sent to, and decode events received from, the API. The
+   * default is {@link StreamingEventCodec}.
+   *
+   * @param codec the codec to use
+   */
+  public void setCodec(EventCodec codec) {
+    if (codec == null) {
+      throw new NullPointerException("codec");
+    }
+    this.codec = codec;
+  }
+
+  EventCodec getCodec() {
+    return codec;
+  }
+
+  /**
+   * Sets whether the bodies of successful responses to single event requests, other than get
+   * event requests, are dropped as they arrive. Callers that only check the status of the
+   * responses save decoding and keeping the bodies; {@link #createEvent(FutureAPIResponse)} and
+   * the methods built on it then return null instead of the event ID. Batch responses are always
+   * kept, since they carry the status of every event. Off by default.
+   *
+   * @param discard whether to drop the bodies
+   */
+  public void setDiscardResponseBodies(boolean discard) {
+    this.discardResponseBodies = discard;
+  }
+
+  boolean isDiscardingResponseBodies() {
+    return discardResponseBodies;
+  }
+
+  @Override
+  boolean discardsBody(String endpoint, HttpRequest request) {
+    return discardResponseBodies && !"GET".equals(request.getMethod())
+        && !endpoint.equals("/batch/events.json");
+  }
+
+  /**
+   * Turns on batching of single events. Once enabled, events passed to {@link
+   * #createEventAsFuture(Event)} and the helper methods built on it are buffered and sent to the
+   * batch events endpoint when either {@code maxBatchSize} events are pending or the oldest pending
+   * event has waited {@code lingerMillis} milliseconds. Each returned {@link FutureAPIResponse}
+   * still completes with the status and event ID of its own event.
+   *
+   * @param maxBatchSize maximum number of events per batch request, between 1 and 50
+   * @param lingerMillis maximum time in milliseconds an event is held before it is sent
+   */
+  public synchronized void enableBatching(int maxBatchSize, long lingerMillis) {
+    if (batcher != null) {
+      throw new IllegalStateException("batching is already enabled");
+    }
+    batcher = new EventBatcher(this, maxBatchSize, lingerMillis);
+  }
+
+  /**
+   * Sends all events buffered by batching immediately. Does nothing if batching is not enabled.
+   */
+  public void flush() {
+    EventBatcher b = batcher;
+    if (b != null) {
+      b.flush();
+    }
+  }
+
+  /**
+   * Sends all buffered events, waits for their batch requests to complete and closes all
+   * connections associated with this client.
+   */
+  @Override
+  public void close() {
+    EventBatcher b = batcher;
+    if (b != null) {
+      b.close();
+    }
+    super.close();
+  }
+
+  /**
+   * Sends an asynchronous create event request to the API. If batching is enabled, the event is
+   * buffered and sent as part of a batch request instead.
    *
    * @param event an instance of {@link Event} that will be turned into a request
    */
   public FutureAPIResponse createEventAsFuture(Event event) throws IOException {
-    RequestBuilder builder = new RequestBuilder("POST");
-    builder.setUrl(apiUrl + "/events.json?accessKey=" + accessKey);
-    String requestJsonString = event.toJsonString();
-    builder.setBody(requestJsonString);
-    builder.setHeader("Content-Type", "application/json");
-    builder.setHeader("Content-Length", "" + requestJsonString.length());
-    return new FutureAPIResponse(client.executeRequest(builder.build(), getHandler()));
+    EventBatcher b = batcher;
+    if (b != null) {
+      return b.add(event);
+    }
+    byte[] requestJson = codec.encode(event);
+    return execute("/events.json",
+        jsonRequest("POST", apiUrl + "/events.json?accessKey=" + accessKey, requestJson), false);
   }
 
   /**
@@ -150,20 +264,14 @@ public class EventClient extends BaseClient {
    *
    * @param response an instance of {@link FutureAPIResponse} returned from {@link
    * #createEventAsFuture}
-   * @return event ID from the server
+   * @return event ID from the server, or null if response bodies are discarded
    * @throws ExecutionException indicates an error in the HTTP backend
    * @throws InterruptedException indicates an interruption during the HTTP operation
    * @throws IOException indicates an error from the API response
    */
   public String createEvent(FutureAPIResponse response)
       throws ExecutionException, InterruptedException, IOException {
-    int status = response.get().getStatus();
-    String message = response.get().getMessage();
-
-    if (status != HTTP_CREATED) {
-      throw new IOException(status + " " + message);
-    }
-    return ((JsonObject) parser.parse(message)).get("eventId").getAsString();
+    return eventIdParser.parse(response.get());
   }
 
   /**
@@ -172,18 +280,41 @@ public class EventClient extends BaseClient {
    * @param events a List of {@link Event} that will be turned into a request
    */
   public FutureAPIResponse createEventsAsFuture(List<Event> events) throws IOException {
-    RequestBuilder builder = new RequestBuilder("POST");
-    builder.setUrl(apiUrl + "/batch/events.json?accessKey=" + accessKey);
+    return createEventsAsFuture(codec.encode(events));
+  }
 
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeAdapter());
-    Gson gson = gsonBuilder.create();
-    String requestJsonString = gson.toJson(events);
+  /**
+   * Sends an asynchronous create events (batch) request with an already encoded JSON array of
+   * events as its body.
+   */
+  FutureAPIResponse createEventsAsFuture(byte[] requestJson) throws IOException {
+    return execute("/batch/events.json", batchRequest(requestJson), false);
+  }
+
+  /**
+   * Sends a create events (batch) request like {@link #createEventsAsFuture(List)}, but only if
+   * the request queue admits it without waiting. Used by background tasks on the scheduler
+   * thread.
+   *
+   * @return the response, or null if the request was not admitted
+   */
+  FutureAPIResponse tryCreateEventsAsFuture(List<Event> events) throws IOException {
+    return tryCreateEventsAsFuture(codec.encode(events));
+  }
+
+  /**
+   * Sends a create events (batch) request with an already encoded JSON array of events, but only
+   * if the request queue admits it without waiting.
+   *
+   * @return the response, or null if the request was not admitted
+   */
+  FutureAPIResponse tryCreateEventsAsFuture(byte[] requestJson) throws IOException {
+    return tryExecute("/batch/events.json", batchRequest(requestJson), false, true);
+  }
 
-    builder.setBody(requestJsonString);
-    builder.setHeader("Content-Type", "application/json");
-    builder.setHeader("Content-Length", "" + requestJsonString.length());
-    return new FutureAPIResponse(client.executeRequest(builder.build(), getHandler()));
+  private HttpRequest batchRequest(byte[] requestJson) {
+    return jsonRequest("POST", apiUrl + "/batch/events.json?accessKey=" + accessKey,
+        requestJson);
   }
 
   /**
@@ -205,25 +336,29 @@ public class EventClient extends BaseClient {
    *
    * @param response an instance of {@link FutureAPIResponse} returned from {@link
    * #createEventAsFuture}
-   * @return List of event IDs from the server
+   * @return List of event IDs from the server, with null for events that were not created
    * @throws ExecutionException indicates an error in the HTTP backend
    * @throws InterruptedException indicates an interruption during the HTTP operation
    * @throws IOException indicates an error from the API response
    */
   public List<String> createEvents(FutureAPIResponse response)
       throws ExecutionException, InterruptedException, IOException {
-    int status = response.get().getStatus();
-    String message = response.get().getMessage();
-
-    if (status != HTTP_OK) {
-      throw new IOException(status + " " + message);
-    }
-    List<String> eventIds = new LinkedList<String>();
+    return getBatchResult(response).getEventIds();
+  }
 
-    for (JsonElement elem : (JsonArray) parser.parse(message)) {
-      eventIds.add(((JsonObject) elem).get("eventId").getAsString());
-    }
-    return eventIds;
+  /**
+   * Synchronize a previously sent asynchronous create events (batch) request, returning the
+   * status, and event ID or error message, of every event.
+   *
+   * @param response an instance of {@link FutureAPIResponse} returned from {@link
+   * #createEventsAsFuture}
+   * @throws ExecutionException indicates an error in the HTTP backend
+   * @throws InterruptedException indicates an interruption during the HTTP operation
+   * @throws IOException indicates an error from the API response
+   */
+  public BatchResult getBatchResult(FutureAPIResponse response)
+      throws ExecutionException, InterruptedException, IOException {
+    return batchResultParser.parse(response.get());
   }
 
   /**
@@ -232,10 +367,9 @@ public class EventClient extends BaseClient {
    * @param eid ID of the event to get
    */
   public FutureAPIResponse getEventAsFuture(String eid) throws IOException {
-    Request request = (new RequestBuilder("GET"))
-        .setUrl(apiUrl + "/events/" + eid + ".json?accessKey=" + accessKey)
-        .build();
-    return new FutureAPIResponse(client.executeRequest(request, getHandler()));
+    HttpRequest request =
+        HttpRequest.get(apiUrl + "/events/" + eid + ".json?accessKey=" + accessKey);
+    return execute("/events/{eventId}.json", request, true);
   }
 
   /**
@@ -262,19 +396,47 @@ public class EventClient extends BaseClient {
    */
   public Event getEvent(FutureAPIResponse response)
       throws ExecutionException, InterruptedException, IOException {
-    int status = response.get().getStatus();
-    String message = response.get().getMessage();
-
-    if (status == HTTP_OK) {
-      // handle DateTime separately
-      GsonBuilder gsonBuilder = new GsonBuilder();
-      gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeAdapter());
-      Gson gson = gsonBuilder.create();
-
-      return gson.fromJson(message, Event.class);
-    } else {
-      throw new IOException(message);
-    }
+    return eventParser.parse(response.get());
+  }
+
+  /**
+   * Sends a create event request to the API, like {@link #createEventAsFuture(Event)}, and
+   * returns a future completed with the event ID from the server, or null if response bodies are
+   * discarded. The future fails with an {@link APIException} if the event is not created.
+   *
+   * @param event an instance of {@link Event} that will be turned into a request
+   * @since 0.13.1
+   */
+  public ListenableFuture<String> createEventAsync(Event event) throws IOException {
+    return parseAsync(createEventAsFuture(event), eventIdParser);
+  }
+
+  /**
+   * Sends a create events (batch) request to the API, and returns a future completed with the
+   * event IDs from the server, with null for events that were not created. The future fails with
+   * an {@link APIException} if the batch is rejected as a whole.
+   *
+   * @param events a List of {@link Event} that will be turned into a request
+   * @since 0.13.1
+   */
+  public ListenableFuture<List<String>> createEventsAsync(List<Event> events)
+      throws IOException {
+    return parseAsync(createEventsAsFuture(events), new ResponseParser<List<String>>() {
+      public List<String> parse(APIResponse response) throws IOException {
+        return batchResultParser.parse(response).getEventIds();
+      }
+    });
+  }
+
+  /**
+   * Sends a get event request to the API, and returns a future completed with the event. The
+   * future fails with an {@link APIException} if the event cannot be retrieved.
+   *
+   * @param eid ID of the event to get
+   * @since 0.13.1
+   */
+  public ListenableFuture<Event> getEventAsync(String eid) throws IOException {
+    return parseAsync(getEventAsFuture(eid), eventParser);
   }
 
   ////////////////////////////////////
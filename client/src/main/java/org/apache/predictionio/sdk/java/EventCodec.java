@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * EventCodec turns {@link Event} objects into the UTF-8 encoded JSON understood by the Event
+ * Server, and back. Implementations must be thread-safe.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ * @see StreamingEventCodec
+ */
+public interface EventCodec {
+
+  /**
+   * Encodes a single event as a JSON object.
+   *
+   * @param event the event to encode
+   * @return UTF-8 encoded JSON
+   */
+  byte[] encode(Event event);
+
+  /**
+   * Encodes a list of events as a JSON array, as expected by the batch events endpoint.
+   *
+   * @param events the events to encode
+   * @return UTF-8 encoded JSON
+   */
+  byte[] encode(List<Event> events);
+
+  /**
+   * Decodes a single event from a JSON object.
+   *
+   * @param data buffer holding UTF-8 encoded JSON
+   * @param offset offset of the JSON object in the buffer
+   * @param length length of the JSON object in bytes
+   * @return the decoded event
+   * @throws IOException indicates malformed JSON
+   */
+  Event decode(byte[] data, int offset, int length) throws IOException;
+
+  /**
+   * Decodes a single event from a JSON object.
+   *
+   * @param json the JSON object as a String
+   * @return the decoded event
+   * @throws IOException indicates malformed JSON
+   */
+  Event decode(String json) throws IOException;
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * EventFileReader reads the JSON lines written by {@link FileExporter}. The file is memory-mapped
+ * and split at line boundaries into chunks, which are decoded in parallel; events are handed to
+ * an {@link EventHandler} on the calling thread, either in file order or as soon as their chunk
+ * is decoded.
+ *
+ * <pre>
+ * try (EventFileReader reader = new EventFileReader("events.json")) {
+ *   reader.read(new EventFileReader.EventHandler() {
+ *     public void onEvent(Event event) throws IOException {
+ *       client.createEventAsFuture(event);
+ *     }
+ *   });
+ * }
+ * </pre>
+ *
+ * <p>At most twice as many chunks as there are decoding threads are held in memory at a time, so
+ * a slow handler slows decoding down instead of filling the heap. Blank lines are skipped.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class EventFileReader implements Closeable {
+
+  /**
+   * Receives the events read from the file, on the thread calling {@link #read(EventHandler)}.
+   */
+  public interface EventHandler {
+    /**
+     * Called for every event. An exception stops reading and is thrown by {@link
+     * #read(EventHandler)}.
+     */
+    void onEvent(Event event) throws IOException;
+  }
+
+  private static final int defaultChunkSize = 8 * 1024 * 1024;
+  private static final int scanSize = 8 * 1024;
+
+  private final FileChannel channel;
+  private final int threads;
+  private final int chunkSize;
+  private final boolean ordered;
+  private EventCodec codec = StreamingEventCodec.getInstance();
+
+  /**
+   * Creates a reader delivering events in file order, decoding on one thread per available
+   * processor.
+   *
+   * @param pathname the file to read
+   * @throws IOException indicates the file cannot be opened
+   */
+  public EventFileReader(String pathname) throws IOException {
+    this(pathname, Runtime.getRuntime().availableProcessors(), defaultChunkSize, true);
+  }
+
+  /**
+   * @param pathname the file to read
+   * @param threads number of decoding threads
+   * @param chunkSize approximate size in bytes of the chunks decoded by one thread at a time
+   * @param ordered whether events are delivered in file order; otherwise chunks are delivered as
+   *     soon as they are decoded, and only events within a chunk keep their order
+   * @throws IOException indicates the file cannot be opened
+   */
+  public EventFileReader(String pathname, int threads, int chunkSize, boolean ordered)
+      throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("at least one thread is needed");
+    }
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunk size must be positive");
+    }
+    this.channel = FileChannel.open(Paths.get(pathname), StandardOpenOption.READ);
+    this.threads = threads;
+    this.chunkSize = chunkSize;
+    this.ordered = ordered;
+  }
+
+  /**
+   * Sets the codec used to decode events. Defaults to {@link StreamingEventCodec}.
+   */
+  public void setCodec(EventCodec codec) {
+    if (codec == null) {
+      throw new NullPointerException("codec");
+    }
+    this.codec = codec;
+  }
+
+  /**
+   * Reads the whole file and hands every event to {@code handler}.
+   *
+   * @return the number of events read
+   * @throws IOException indicates a read failure, a malformed line, or an exception from the
+   *     handler
+   */
+  public long read(EventHandler handler) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("predictionio-reader-%d")
+        .build());
+    // only used out of order: it keeps every completed chunk until it is taken
+    ExecutorCompletionService<List<Event>> completion =
+        ordered ? null : new ExecutorCompletionService<List<Event>>(pool);
+    ArrayDeque<Future<List<Event>>> pending = new ArrayDeque<>();
+    long count = 0;
+    try {
+      long size = channel.size();
+      long position = 0;
+      while (position < size || !pending.isEmpty()) {
+        while (position < size && pending.size() < threads * 2) {
+          long end = chunkEnd(position, size);
+          Callable<List<Event>> chunk = decode(position, end - position);
+          pending.add(ordered ? pool.submit(chunk) : completion.submit(chunk));
+          position = end;
+        }
+        Future<List<Event>> done;
+        if (ordered) {
+          done = pending.poll();
+        } else {
+          done = completion.take();
+          pending.remove(done);
+        }
+        for (Event event : done.get()) {
+          handler.onEvent(event);
+          count++;
+        }
+      }
+      return count;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted reading events");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Returns the position just past the first line break at or after {@code position + chunkSize},
+   * or the end of the file.
+   */
+  private long chunkEnd(long position, long size) throws IOException {
+    long end = position + chunkSize;
+    ByteBuffer scan = ByteBuffer.allocate(scanSize);
+    while (end < size) {
+      scan.clear();
+      int n = channel.read(scan, end - 1);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++) {
+        if (scan.get(i) == '\n') {
+          return end + i;
+        }
+      }
+      end += n;
+    }
+    return size;
+  }
+
+  private Callable<List<Event>> decode(final long position, final long length) {
+    return new Callable<List<Event>>() {
+      public List<Event> call() throws IOException {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        List<Event> events = new ArrayList<>();
+        byte[] line = new byte[1024];
+        while (chunk.hasRemaining()) {
+          int start = chunk.position();
+          int end = start;
+          while (end < chunk.limit() && chunk.get(end) != '\n') {
+            end++;
+          }
+          int lineLength = end - start;
+          if (lineLength > 0 && chunk.get(end - 1) == '\r') {
+            lineLength--;
+          }
+          if (lineLength > line.length) {
+            line = new byte[Math.max(lineLength, line.length * 2)];
+          }
+          chunk.get(line, 0, lineLength);
+          chunk.position(Math.min(end + 1, chunk.limit()));
+          if (isBlank(line, lineLength)) {
+            continue;
+          }
+          try {
+            events.add(codec.decode(line, 0, lineLength));
+          } catch (IOException e) {
+            throw new IOException("malformed event at byte " + (position + start) + ": "
+                + e.getMessage(), e);
+          }
+        }
+        return events;
+      }
+    };
+  }
+
+  private static boolean isBlank(byte[] line, int length) {
+    for (int i = 0; i < length; i++) {
+      if (line[i] != ' ' && line[i] != '\t') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EventSink receives events from a reactive pipeline and sends them to the Event Server through
+ * the batch events endpoint, with demand-driven backpressure. It follows the Reactive Streams
+ * subscriber protocol: once subscribed, it requests as many events as fit into {@code
+ * maxInFlight} batch requests, and requests more only as batches are acknowledged, so a fast
+ * publisher can never overrun the client. At most {@code maxInFlight} batch requests are in
+ * flight; events beyond them wait in the sink until a request completes, so {@link
+ * #onNext(Event)} never blocks.
+ *
+ * <p>Each event is acknowledged through an {@link AckListener}, and {@link #getCompletion()}
+ * completes once the publisher has terminated and every event has been acknowledged.
+ *
+ * <p>The sink mirrors the Reactive Streams interfaces without depending on them. A Reactive
+ * Streams or {@code java.util.concurrent.Flow} subscriber is a thin adapter:
+ *
+ * <pre>
+ * public void onSubscribe(final Subscription s) {
+ *   sink.onSubscribe(new EventSink.Subscription() {
+ *     public void request(long n) { s.request(n); }
+ *     public void cancel() { s.cancel(); }
+ *   });
+ * }
+ * public void onNext(Event event) { sink.onNext(event); }
+ * public void onError(Throwable t) { sink.onError(t); }
+ * public void onComplete() { sink.onComplete(); }
+ * </pre>
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class EventSink {
+
+  /**
+   * The publisher's side of a subscription.
+   */
+  public interface Subscription {
+    /**
+     * Asks the publisher for up to {@code n} more events.
+     */
+    void request(long n);
+
+    /**
+     * Asks the publisher to stop sending events.
+     */
+    void cancel();
+  }
+
+  /**
+   * Receives the acknowledgement of every event. Methods are called from HTTP client threads and
+   * should return quickly.
+   */
+  public interface AckListener {
+    /**
+     * Called for every event created by the Event Server.
+     */
+    void onCreated(Event event, String eventId);
+
+    /**
+     * Called for every event that was not created.
+     *
+     * @param event the event
+     * @param status HTTP status for the event, or 0 if the request itself failed
+     * @param message error message from the Event Server or the HTTP client
+     */
+    void onFailure(Event event, int status, String message);
+  }
+
+  private final EventClient client;
+  private final AckListener listener;
+  private final int maxInFlight;
+  private final int batchSize;
+  private final long lingerMillis;
+  private final int capacity;
+  private final SettableFuture<Void> completion = SettableFuture.create();
+
+  // guarded by this
+  private Subscription subscription;
+  private List<Event> buffer;
+  private ScheduledFuture<?> lingerTask;
+  private boolean lingerExpired;
+  private int inFlightBatches;
+  private boolean terminated;
+  private Throwable error;
+
+  /**
+   * Creates a sink sending batches of 50 events, with as many batch requests in flight as the
+   * client has connections, and holding partial batches for at most 100 milliseconds.
+   *
+   * @param client the client used to send batch requests
+   * @param listener receives the acknowledgement of every event
+   */
+  public EventSink(EventClient client, AckListener listener) {
+    this(client, listener, client.threadLimit, EventBatcher.MAX_BATCH_SIZE, 100);
+  }
+
+  /**
+   * @param client the client used to send batch requests
+   * @param listener receives the acknowledgement of every event
+   * @param maxInFlight maximum number of batch requests in flight at the same time; at most the
+   *     number of requests the client can send or queue without blocking
+   * @param batchSize number of events per batch request, between 1 and 50
+   * @param lingerMillis maximum time in milliseconds an event waits for its batch to fill up
+   */
+  public EventSink(EventClient client, AckListener listener, int maxInFlight, int batchSize,
+      long lingerMillis) {
+    if (listener == null) {
+      throw new NullPointerException("listener");
+    }
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("at least one request must be allowed in flight");
+    }
+    if (batchSize < 1 || batchSize > EventBatcher.MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("batch size must be between 1 and "
+          + EventBatcher.MAX_BATCH_SIZE);
+    }
+    if (lingerMillis <= 0) {
+      throw new IllegalArgumentException("linger time must be positive");
+    }
+    this.client = client;
+    this.listener = listener;
+    this.maxInFlight = maxInFlight;
+    this.batchSize = batchSize;
+    this.lingerMillis = lingerMillis;
+    this.capacity = maxInFlight * batchSize;
+    this.buffer = new ArrayList<>(batchSize);
+  }
+
+  /**
+   * Starts the subscription and requests the first events. A second subscription is cancelled.
+   */
+  public void onSubscribe(Subscription s) {
+    if (s == null) {
+      throw new NullPointerException("subscription");
+    }
+    synchronized (this) {
+      if (subscription != null || terminated) {
+        s.cancel();
+        return;
+      }
+      subscription = s;
+    }
+    s.request(capacity);
+  }
+
+  /**
+   * Adds an event to the current batch, and sends the batch if it is full and a request slot is
+   * free.
+   */
+  public void onNext(Event event) {
+    if (event == null) {
+      throw new NullPointerException("event");
+    }
+    List<List<Event>> batches;
+    synchronized (this) {
+      if (terminated) {
+        return;
+      }
+      buffer.add(event);
+      batches = takeBatches();
+    }
+    sendAll(batches);
+  }
+
+  /**
+   * Sends the buffered events; {@link #getCompletion()} fails with the publisher's error once
+   * they are acknowledged.
+   */
+  public void onError(Throwable t) {
+    terminate(t != null ? t : new NullPointerException("error"), false);
+  }
+
+  /**
+   * Sends the buffered events; {@link #getCompletion()} completes once they are acknowledged.
+   */
+  public void onComplete() {
+    terminate(null, false);
+  }
+
+  /**
+   * Cancels the subscription and sends the buffered events.
+   */
+  public void cancel() {
+    terminate(null, true);
+  }
+
+  /**
+   * Returns a future completed once the publisher has terminated, or the subscription has been
+   * cancelled, and every event received has been acknowledged. It fails with the publisher's
+   * error if the publisher terminated with one.
+   */
+  public ListenableFuture<Void> getCompletion() {
+    return completion;
+  }
+
+  private void terminate(Throwable cause, boolean cancel) {
+    List<Event> batch;
+    Subscription s;
+    synchronized (this) {
+      if (terminated) {
+        return;
+      }
+      terminated = true;
+      error = cause;
+      s = subscription;
+    }
+    if (cancel && s != null) {
+      s.cancel();
+    }
+    // sends the buffered events as slots free up, and completes once nothing is left
+    onBatchDone(0);
+  }
+
+  /**
+   * Takes the batches that can be sent now: full batches, and the remaining partial batch once
+   * its linger time has expired or the sink has terminated, as long as request slots are free.
+   * Events that cannot be sent yet stay in the buffer, under a linger timer. Called with the lock
+   * held.
+   */
+  private List<List<Event>> takeBatches() {
+    List<List<Event>> batches = null;
+    while (inFlightBatches < maxInFlight && !buffer.isEmpty()
+        && (buffer.size() >= batchSize || lingerExpired || terminated)) {
+      List<Event> batch;
+      if (buffer.size() > batchSize) {
+        batch = new ArrayList<>(buffer.subList(0, batchSize));
+        buffer.subList(0, batchSize).clear();
+      } else {
+        batch = buffer;
+        buffer = new ArrayList<>(batchSize);
+        lingerExpired = false;
+      }
+      inFlightBatches++;
+      if (batches == null) {
+        batches = new ArrayList<>();
+      }
+      batches.add(batch);
+    }
+    if (buffer.isEmpty() || terminated) {
+      if (lingerTask != null) {
+        lingerTask.cancel(false);
+        lingerTask = null;
+      }
+    } else if (lingerTask == null && !lingerExpired) {
+      lingerTask = client.scheduler().schedule(new Runnable() {
+        public void run() {
+          List<List<Event>> batches;
+          synchronized (EventSink.this) {
+            lingerTask = null;
+            lingerExpired = true;
+            batches = takeBatches();
+          }
+          sendAll(batches);
+        }
+      }, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+    return batches;
+  }
+
+  private void sendAll(List<List<Event>> batches) {
+    if (batches != null) {
+      for (List<Event> batch : batches) {
+        send(batch);
+      }
+    }
+  }
+
+  private void send(final List<Event> batch) {
+    final FutureAPIResponse response;
+    try {
+      response = client.createEventsAsFuture(batch);
+    } catch (IOException | RuntimeException e) {
+      fail(batch, 0, e.getMessage());
+      onBatchDone(batch.size());
+      return;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        try {
+          acknowledge(batch, response);
+        } finally {
+          onBatchDone(batch.size());
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void acknowledge(List<Event> batch, FutureAPIResponse response) {
+    APIResponse result;
+    try {
+      result = response.get();
+    } catch (InterruptedException | ExecutionException e) {
+      fail(batch, 0, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+      return;
+    }
+    if (result.getStatus() != BaseClient.HTTP_OK) {
+      fail(batch, result.getStatus(), result.getMessage());
+      return;
+    }
+
+    BatchResult results;
+    try {
+      results = BatchResult.parse(result.getReader(), batch.size());
+    } catch (IOException | RuntimeException e) {
+      fail(batch, result.getStatus(), "unreadable batch response: " + e.getMessage());
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      try {
+        if (i >= results.size()) {
+          listener.onFailure(batch.get(i), 0, "missing batch response entry");
+        } else if (results.isCreated(i)) {
+          listener.onCreated(batch.get(i), results.getEventId(i));
+        } else {
+          listener.onFailure(batch.get(i), results.getStatus(i), results.getMessage(i));
+        }
+      } catch (RuntimeException e) {
+        // a broken listener must not stop the stream
+      }
+    }
+  }
+
+  private void fail(List<Event> batch, int status, String message) {
+    for (Event event : batch) {
+      try {
+        listener.onFailure(event, status, message);
+      } catch (RuntimeException e) {
+        // a broken listener must not stop the stream
+      }
+    }
+  }
+
+  /**
+   * Called once for every batch sent, and once on termination with no events.
+   */
+  private void onBatchDone(int events) {
+    Subscription s = null;
+    Throwable cause = null;
+    boolean done = false;
+    List<List<Event>> batches;
+    synchronized (this) {
+      if (events > 0) {
+        inFlightBatches--;
+      }
+      batches = takeBatches();
+      if (!terminated) {
+        s = subscription;
+      } else if (inFlightBatches == 0 && buffer.isEmpty()) {
+        done = true;
+        cause = error;
+      }
+    }
+    sendAll(batches);
+    if (s != null && events > 0) {
+      // the acknowledged events make room for as many new ones
+      s.request(events);
+    } else if (done && cause != null) {
+      completion.setException(cause);
+    } else if (done) {
+      completion.set(null);
+    }
+  }
+}
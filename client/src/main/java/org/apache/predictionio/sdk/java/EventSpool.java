@@ -0,0 +1,411 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventSpool is a durable, disk-backed queue in front of an {@link EventClient}. Events passed to
+ * {@link #append(Event)} are written to memory-mapped segment files in a local directory and
+ * acknowledged as soon as they are stored. A background task drains them to the batch events
+ * endpoint in the order they were appended, and records its progress in a checkpoint file so
+ * that a restarted application resumes where it left off.
+ *
+ * <p>While the Event Server is unavailable, events accumulate on disk instead of on the heap.
+ * Batches the server fails to accept as a whole are retried until it does; events the server
+ * rejects individually are counted by {@link #getRejectedCount()} and not retried.
+ *
+ * <p>Appended events survive a crash of the application. Unless {@code fsync} is enabled they
+ * may be lost if the operating system itself crashes before writing them back to disk.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class EventSpool implements Closeable {
+
+  private static final int defaultSegmentSize = 64 * 1024 * 1024;
+  private static final long defaultDrainIntervalMillis = 200;
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String CHECKPOINT = "checkpoint";
+
+  // length prefix of a record; a zero length marks the end of the data in a segment
+  private static final int HEADER_SIZE = 4;
+
+  private final EventClient client;
+  private final File directory;
+  private final int segmentSize;
+  private final boolean fsync;
+  private final ScheduledFuture<?> drainTask;
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private volatile boolean closed;
+
+  // guarded by this
+  private long writeSegment;
+  private MappedByteBuffer writeBuffer;
+
+  // only accessed by the drain in progress
+  private long readSegment;
+  private int readOffset;
+  private MappedByteBuffer readBuffer;
+
+  private final AtomicLong drainedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Opens or creates a spool with 64 MB segments that is drained every 200 milliseconds.
+   *
+   * @param client the client used to send spooled events
+   * @param directory directory holding the segment and checkpoint files
+   * @throws IOException indicates an error opening the spool files
+   */
+  public EventSpool(EventClient client, File directory) throws IOException {
+    this(client, directory, defaultSegmentSize, defaultDrainIntervalMillis, false);
+  }
+
+  /**
+   * Opens or creates a spool. Events left in the directory by a previous spool are sent first.
+   *
+   * @param client the client used to send spooled events
+   * @param directory directory holding the segment and checkpoint files
+   * @param segmentSize size in bytes of each segment file, which bounds the size of an event
+   * @param drainIntervalMillis time in milliseconds between attempts to drain the spool
+   * @param fsync whether {@link #append(Event)} forces each event to the storage device
+   * @throws IOException indicates an error opening the spool files
+   */
+  public EventSpool(EventClient client, File directory, int segmentSize,
+      long drainIntervalMillis, boolean fsync) throws IOException {
+    if (segmentSize < 1024) {
+      throw new IllegalArgumentException("segment size must be at least 1024 bytes");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("cannot create spool directory " + directory);
+    }
+    this.client = client;
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.fsync = fsync;
+    recover();
+    this.drainTask = client.scheduler().scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        drain();
+      }
+    }, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stores an event in the spool. When this method returns, the event has been written to the
+   * segment file and will be sent even if the application is restarted.
+   *
+   * @param event the event to store
+   * @throws IOException indicates an error writing the spool files
+   */
+  public void append(Event event) throws IOException {
+    byte[] record = client.getCodec().encode(event);
+    if (HEADER_SIZE + record.length + HEADER_SIZE > segmentSize) {
+      throw new IllegalArgumentException("event of " + record.length
+          + " bytes does not fit in a spool segment");
+    }
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("spool is closed");
+      }
+      if (writeBuffer.remaining() < HEADER_SIZE + record.length + HEADER_SIZE) {
+        // the zero length left at the current position marks the end of the old segment
+        writeBuffer.force();
+        writeSegment++;
+        writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+      }
+      int position = writeBuffer.position();
+      writeBuffer.position(position + HEADER_SIZE);
+      writeBuffer.put(record);
+      // the length goes in last, so a partially written record is never visible
+      writeBuffer.putInt(position, record.length);
+      if (fsync) {
+        writeBuffer.force();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of events sent to and accepted by the Event Server.
+   */
+  public long getDrainedCount() {
+    return drainedCount.get();
+  }
+
+  /**
+   * Returns the number of events sent to the Event Server and individually rejected by it.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Stops draining and flushes the segment being written. Events not yet sent stay in the
+   * directory and are sent by the next spool opened on it.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    drainTask.cancel(false);
+    writeBuffer.force();
+  }
+
+  private void recover() throws IOException {
+    long[] segments = listSegments();
+    long checkpointSegment = -1;
+    int checkpointOffset = 0;
+    File checkpoint = new File(directory, CHECKPOINT);
+    if (checkpoint.exists()) {
+      ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(checkpoint.toPath()));
+      checkpointSegment = data.getLong();
+      checkpointOffset = data.getInt();
+    }
+
+    if (segments.length == 0) {
+      writeSegment = Math.max(checkpointSegment, 0);
+      writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+      readSegment = writeSegment;
+      readOffset = 0;
+      return;
+    }
+
+    writeSegment = segments[segments.length - 1];
+    writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+    int position = 0;
+    while (true) {
+      int length = recordLength(writeBuffer, position);
+      if (length <= 0) {
+        break;
+      }
+      position += HEADER_SIZE + length;
+    }
+    writeBuffer.position(position);
+
+    if (checkpointSegment >= segments[0]) {
+      readSegment = checkpointSegment;
+      readOffset = checkpointOffset;
+    } else {
+      // the checkpointed segment is gone, so everything left is unsent
+      readSegment = segments[0];
+      readOffset = 0;
+    }
+  }
+
+  /**
+   * Sends the next batch of spooled events, unless a batch is already in flight or the request
+   * queue is full. The next batch is started as soon as this one has been accepted.
+   */
+  private void drain() {
+    if (closed || !draining.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      long endSegment;
+      int endOffset;
+      synchronized (this) {
+        endSegment = writeSegment;
+        endOffset = writeBuffer.position();
+      }
+
+      Utf8JsonWriter body = Utf8JsonWriter.get();
+      body.beginArray();
+      int count = 0;
+      long segment = readSegment;
+      int offset = readOffset;
+      MappedByteBuffer buffer = readBuffer;
+      while (count < EventBatcher.MAX_BATCH_SIZE
+          && (segment < endSegment || offset < endOffset)) {
+        if (buffer == null) {
+          buffer = map(segment, FileChannel.MapMode.READ_ONLY);
+        }
+        int length = recordLength(buffer, offset);
+        if (length <= 0) {
+          if (segment == endSegment) {
+            break;
+          }
+          segment++;
+          offset = 0;
+          buffer = null;
+          continue;
+        }
+        if (count > 0) {
+          body.comma();
+        }
+        byte[] record = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.get(record);
+        body.writeBytes(record);
+        offset += HEADER_SIZE + length;
+        count++;
+      }
+      body.endArray();
+
+      if (count == 0) {
+        advance(segment, offset, buffer);
+        draining.set(false);
+        return;
+      }
+      send(body.toByteArray(), count, segment, offset, buffer);
+    } catch (IOException | RuntimeException e) {
+      // retried on the next scheduled drain
+      draining.set(false);
+    }
+  }
+
+  private void send(byte[] requestJson, final int count, final long segment, final int offset,
+      final MappedByteBuffer buffer) throws IOException {
+    // drains run on the client's scheduler thread, which must not wait for the request queue
+    final FutureAPIResponse response = client.tryCreateEventsAsFuture(requestJson);
+    if (response == null) {
+      // the same events are sent on the next scheduled drain
+      draining.set(false);
+      return;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        boolean accepted = false;
+        try {
+          APIResponse result = response.get();
+          if (result.getStatus() == BaseClient.HTTP_OK) {
+            countResults(result, count);
+            advance(segment, offset, buffer);
+            accepted = true;
+          }
+        } catch (InterruptedException | ExecutionException | IOException | RuntimeException e) {
+          // the same events are sent again on the next scheduled drain
+        } finally {
+          draining.set(false);
+        }
+        if (accepted && !closed) {
+          try {
+            client.scheduler().execute(new Runnable() {
+              public void run() {
+                drain();
+              }
+            });
+          } catch (RejectedExecutionException e) {
+            // the client has been closed
+          }
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void countResults(APIResponse response, int count) {
+    int rejected = 0;
+    try {
+      BatchResult results = BatchResult.parse(response.getReader(), count);
+      rejected = results.size() - results.getCreatedCount();
+    } catch (IOException | RuntimeException e) {
+      // the batch was accepted, so an unexpected response body only affects the counters
+    }
+    rejectedCount.addAndGet(rejected);
+    drainedCount.addAndGet(count - rejected);
+  }
+
+  /**
+   * Moves the read position forward, persists it and deletes segments that have been sent.
+   */
+  private void advance(long segment, int offset, MappedByteBuffer buffer) throws IOException {
+    if (segment == readSegment && offset == readOffset) {
+      readBuffer = buffer;
+      return;
+    }
+    writeCheckpoint(segment, offset);
+    for (long s = readSegment; s < segment; s++) {
+      Files.deleteIfExists(segmentFile(s).toPath());
+    }
+    readSegment = segment;
+    readOffset = offset;
+    readBuffer = buffer;
+  }
+
+  private void writeCheckpoint(long segment, int offset) throws IOException {
+    ByteBuffer data = ByteBuffer.allocate(12);
+    data.putLong(segment).putInt(offset);
+    File tmp = new File(directory, CHECKPOINT + ".tmp");
+    Files.write(tmp.toPath(), data.array());
+    Files.move(tmp.toPath(), new File(directory, CHECKPOINT).toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private int recordLength(ByteBuffer buffer, int offset) {
+    if (offset + HEADER_SIZE > buffer.capacity()) {
+      return 0;
+    }
+    int length = buffer.getInt(offset);
+    if (length < 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+      return 0;
+    }
+    return length;
+  }
+
+  private MappedByteBuffer map(long segment, FileChannel.MapMode mode) throws IOException {
+    File file = segmentFile(segment);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (raf.length() < segmentSize) {
+        raf.setLength(segmentSize);
+      }
+      // the mapping stays valid after the channel is closed
+      return raf.getChannel().map(mode, 0, segmentSize);
+    }
+  }
+
+  private File segmentFile(long segment) {
+    return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, segment,
+        SEGMENT_SUFFIX));
+  }
+
+  private long[] listSegments() {
+    String[] names = directory.list();
+    if (names == null) {
+      return new long[0];
+    }
+    long[] segments = new long[names.length];
+    int count = 0;
+    for (String name : names) {
+      if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+        segments[count++] = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+            name.length() - SEGMENT_SUFFIX.length()));
+      }
+    }
+    segments = Arrays.copyOf(segments, count);
+    Arrays.sort(segments);
+    return segments;
+  }
+}
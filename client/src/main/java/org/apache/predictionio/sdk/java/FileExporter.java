@@ -21,15 +21,108 @@ package org.apache.predictionio.sdk.java;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 import org.joda.time.DateTime;
 
+/**
+ * FileExporter writes events as JSON lines, one event per line, in the format expected by
+ * {@code pio import}.
+ *
+ * <p>By default every event is written to the file as soon as it is created. For large exports,
+ * use {@link #FileExporter(String, int, SyncPolicy)}, which collects events in a direct buffer
+ * and only writes to the file when the buffer is full, on {@link #flush()} and on {@link
+ * #close()}.
+ *
+ * <p>{@link #FileExporter(String, int, SyncPolicy, Format)} can instead write the compact {@link
+ * Format#BINARY} format, which {@link BinaryEventReader} replays as events or converts back to
+ * JSON lines.
+ */
 public class FileExporter {
 
-  private FileOutputStream out;
+  /**
+   * When written data is forced to the storage device.
+   */
+  public enum SyncPolicy {
+    /** Leave it to the operating system. */
+    NEVER,
+    /** Once, when the exporter is closed. */
+    ON_CLOSE,
+    /** On every {@link FileExporter#flush()} and when the exporter is closed. */
+    ON_FLUSH
+  }
+
+  /**
+   * How events are written.
+   */
+  public enum Format {
+    /** One JSON object per line, as read by {@code pio import}. */
+    JSON_LINES,
+    /**
+     * Length-prefixed blocks of deflate-compressed events. Each block has its own dictionary,
+     * so event names, entity types and property keys are stored once per block.
+     */
+    BINARY
+  }
+
+  private static final int defaultBufferSize = 64 * 1024;
+  private static final int binaryBlockSize = 256 * 1024;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final boolean flushEveryEvent;
+  private final SyncPolicy syncPolicy;
+  private final BinaryEventFormat.Encoder encoder;
 
   public FileExporter(String pathname) throws FileNotFoundException {
-    out = new FileOutputStream(pathname);
+    this(pathname, defaultBufferSize, SyncPolicy.NEVER, Format.JSON_LINES, true);
+  }
+
+  /**
+   * Creates a buffered exporter.
+   *
+   * @param pathname the file to write to
+   * @param bufferSize size in bytes of the write buffer
+   * @param syncPolicy when written data is forced to the storage device
+   */
+  public FileExporter(String pathname, int bufferSize, SyncPolicy syncPolicy)
+      throws FileNotFoundException {
+    this(pathname, bufferSize, syncPolicy, Format.JSON_LINES, false);
+  }
+
+  /**
+   * Creates a buffered exporter writing the given format. In the binary format, events are
+   * collected into blocks of about 256 KB before being compressed; {@link #flush()} ends the
+   * current block early.
+   *
+   * @param pathname the file to write to
+   * @param bufferSize size in bytes of the write buffer
+   * @param syncPolicy when written data is forced to the storage device
+   * @param format how events are written
+   */
+  public FileExporter(String pathname, int bufferSize, SyncPolicy syncPolicy, Format format)
+      throws IOException {
+    this(pathname, bufferSize, syncPolicy, format, false);
+    if (encoder != null) {
+      write(BinaryEventFormat.MAGIC);
+      write(new byte[] {BinaryEventFormat.VERSION});
+    }
+  }
+
+  private FileExporter(String pathname, int bufferSize, SyncPolicy syncPolicy, Format format,
+      boolean flushEveryEvent) throws FileNotFoundException {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("buffer size must be positive");
+    }
+    if (format == null) {
+      throw new NullPointerException("format");
+    }
+    this.channel = new FileOutputStream(pathname).getChannel();
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    this.syncPolicy = syncPolicy;
+    this.flushEveryEvent = flushEveryEvent;
+    this.encoder = format == Format.BINARY ? new BinaryEventFormat.Encoder() : null;
   }
 
   /**
@@ -51,30 +144,92 @@ public class FileExporter {
       eventTime = new DateTime();
     }
 
-    Event event = new Event()
-        .event(eventName)
-        .entityType(entityType)
-        .entityId(entityId)
-        .eventTime(eventTime);
+    if (encoder != null) {
+      encoder.writeEvent(eventName, entityType, entityId, targetEntityType, targetEntityId,
+          properties, eventTime);
+      if (encoder.size() >= binaryBlockSize) {
+        write(encoder.finishBlock());
+      }
+      return;
+    }
+
+    Utf8JsonWriter writer = Utf8JsonWriter.get();
+    StreamingEventCodec.writeEvent(writer, eventName, entityType, entityId, targetEntityType,
+        targetEntityId, properties, eventTime);
+    writer.writeByte('\n');
 
-    if (targetEntityType != null) {
-      event.targetEntityType(targetEntityType);
+    int written = 0;
+    while (written < writer.size()) {
+      written += writer.copyTo(written, buffer);
+      if (!buffer.hasRemaining()) {
+        writeBuffer();
+      }
     }
+    if (flushEveryEvent) {
+      writeBuffer();
+    }
+  }
+
+  /**
+   * Writes an event to the underlying file. The event time defaults to now.
+   */
+  public void createEvent(Event event) throws IOException {
+    createEvent(event.getEvent(), event.getEntityType(), event.getEntityId(),
+        event.getTargetEntityType(), event.getTargetEntityId(), event.getProperties(),
+        event.getEventTime());
+  }
 
-    if (targetEntityId != null) {
-      event.targetEntityId(targetEntityId);
+  /**
+   * Writes buffered events to the file, and forces them to the storage device if the sync policy
+   * is {@link SyncPolicy#ON_FLUSH}.
+   */
+  public void flush() throws IOException {
+    finishBlock();
+    writeBuffer();
+    if (syncPolicy == SyncPolicy.ON_FLUSH) {
+      channel.force(false);
     }
+  }
 
-    if (properties != null) {
-      event.properties(properties);
+  public void close() throws IOException {
+    try {
+      finishBlock();
+      writeBuffer();
+      if (syncPolicy != SyncPolicy.NEVER) {
+        channel.force(false);
+      }
+    } finally {
+      if (encoder != null) {
+        encoder.end();
+      }
+      channel.close();
     }
+  }
 
-    out.write(event.toJsonString().getBytes("UTF8"));
-    out.write('\n');
+  private void finishBlock() throws IOException {
+    if (encoder != null && encoder.getEventCount() > 0) {
+      write(encoder.finishBlock());
+    }
   }
 
-  public void close() throws IOException {
-    out.close();
+  private void write(byte[] bytes) throws IOException {
+    int written = 0;
+    while (written < bytes.length) {
+      int n = Math.min(bytes.length - written, buffer.remaining());
+      buffer.put(bytes, written, n);
+      written += n;
+      if (!buffer.hasRemaining()) {
+        writeBuffer();
+      }
+    }
+  }
+
+  private void writeBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
   }
 
 }
@@ -39,6 +39,10 @@ public class FutureAPIResponse implements ListenableFuture<APIResponse> {
     this.apiResponse = ListenableFutureAdapter.asGuavaFuture(apiResponse);
   }
 
+  FutureAPIResponse(ListenableFuture<APIResponse> apiResponse) {
+    this.apiResponse = apiResponse;
+  }
+
   // implements ListenableFuture<APIResponse>
 
   public void addListener(Runnable listener, Executor executor) {
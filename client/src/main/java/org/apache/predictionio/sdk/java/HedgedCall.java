@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HedgedCall sends a read-only request and, if no response has arrived after a delay, sends a
+ * second copy. The first response wins and the other copy is cancelled. A failed copy only
+ * decides the outcome if the other copy fails too, or was never sent.
+ */
+abstract class HedgedCall {
+
+  private final SettableFuture<APIResponse> result = SettableFuture.create();
+  private volatile FutureAPIResponse primary;
+  private volatile FutureAPIResponse hedge;
+  // guarded by this
+  private int pending;
+  private Throwable firstFailure;
+
+  /**
+   * Sends one copy of the request. The hedge is sent from the client's scheduler thread, so it
+   * must not wait for the request queue; it is only sent if a slot is free.
+   *
+   * @param hedge whether this is the second copy
+   * @return the response, or null if the hedge was not sent because no slot is free
+   */
+  abstract FutureAPIResponse send(boolean hedge) throws IOException;
+
+  /**
+   * Returns whether the hedge ratio allows a hedge now.
+   */
+  abstract boolean mayHedge();
+
+  /**
+   * Accounts for a hedge that was sent.
+   */
+  abstract void onHedge();
+
+  /**
+   * Sends the request and schedules the hedge. Failures to send the first copy are thrown.
+   */
+  FutureAPIResponse start(BaseClient owner, long delayMillis) throws IOException {
+    primary = send(false);
+    synchronized (this) {
+      pending = 1;
+    }
+    watch(primary);
+    try {
+      owner.scheduler().schedule(new Runnable() {
+        public void run() {
+          sendHedge();
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // the client is closed; the first copy is all there is
+    }
+    result.addListener(new Runnable() {
+      public void run() {
+        cancelLosers();
+      }
+    }, MoreExecutors.directExecutor());
+    return new FutureAPIResponse(result);
+  }
+
+  private void sendHedge() {
+    if (result.isDone() || !mayHedge()) {
+      return;
+    }
+    synchronized (this) {
+      pending++;
+    }
+    FutureAPIResponse copy;
+    try {
+      copy = send(true);
+    } catch (IOException | RuntimeException e) {
+      settleFailure(e);
+      return;
+    }
+    if (copy == null) {
+      // every connection is busy, so a hedge would only wait behind other requests
+      settleFailure(null);
+      return;
+    }
+    onHedge();
+    hedge = copy;
+    watch(hedge);
+    if (result.isDone()) {
+      hedge.cancel(true);
+    }
+  }
+
+  private void watch(final FutureAPIResponse copy) {
+    copy.addListener(new Runnable() {
+      public void run() {
+        if (copy.isCancelled()) {
+          settleFailure(null);
+          return;
+        }
+        try {
+          result.set(copy.get());
+        } catch (InterruptedException | ExecutionException e) {
+          settleFailure(e.getCause() != null ? e.getCause() : e);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void settleFailure(Throwable failure) {
+    Throwable reported;
+    synchronized (this) {
+      if (firstFailure == null) {
+        firstFailure = failure;
+      }
+      if (--pending > 0) {
+        return;
+      }
+      reported = firstFailure;
+    }
+    if (reported != null) {
+      result.setException(reported);
+    } else {
+      result.cancel(false);
+    }
+  }
+
+  private void cancelLosers() {
+    FutureAPIResponse p = primary;
+    FutureAPIResponse h = hedge;
+    if (p != null && !p.isDone()) {
+      p.cancel(true);
+    }
+    if (h != null && !h.isDone()) {
+      h.cancel(true);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An HTTP request built by a client and handed to its {@link Transport}.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public final class HttpRequest {
+
+  private final String method;
+  private final String url;
+  private final Map<String, String> headers = new LinkedHashMap<>();
+  private byte[] body;
+
+  HttpRequest(String method, String url) {
+    this.method = method;
+    this.url = url;
+  }
+
+  static HttpRequest get(String url) {
+    return new HttpRequest("GET", url);
+  }
+
+  HttpRequest header(String name, String value) {
+    headers.put(name, value);
+    return this;
+  }
+
+  HttpRequest body(byte[] body) {
+    this.body = body;
+    return this;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Returns the request headers, including {@code Content-Length} if there is a body.
+   */
+  public Map<String, String> getHeaders() {
+    return Collections.unmodifiableMap(headers);
+  }
+
+  /**
+   * Returns the request body, or null if there is none. The array is shared and must not be
+   * modified.
+   */
+  public byte[] getBody() {
+    return body;
+  }
+}
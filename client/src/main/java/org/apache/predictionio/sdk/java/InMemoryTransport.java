@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * InMemoryTransport answers requests with a {@link Handler} on the calling thread, without a
+ * network. It lets tests and benchmarks run clients against a fake API, and measure the clients
+ * without the cost of HTTP.
+ *
+ * <pre>
+ * EventClient client = new EventClient(accessKey);
+ * client.setTransport(new InMemoryTransport(new InMemoryTransport.Handler() {
+ *   public APIResponse handle(HttpRequest request) {
+ *     return new APIResponse(201, "{\"eventId\":\"1\"}");
+ *   }
+ * }));
+ * </pre>
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class InMemoryTransport implements Transport {
+
+  /**
+   * Answers requests.
+   */
+  public interface Handler {
+    /**
+     * Returns the response to a request, or throws to fail it as if no response was received.
+     */
+    APIResponse handle(HttpRequest request) throws IOException;
+  }
+
+  private final Handler handler;
+  private final AtomicLong requestCount = new AtomicLong();
+  private volatile boolean closed;
+
+  public InMemoryTransport(Handler handler) {
+    if (handler == null) {
+      throw new NullPointerException("handler");
+    }
+    this.handler = handler;
+  }
+
+  @Override
+  public ListenableFuture<APIResponse> send(HttpRequest request, boolean discardSuccessBody) {
+    if (closed) {
+      return Futures.immediateFailedFuture(new IOException("transport is closed"));
+    }
+    requestCount.incrementAndGet();
+    try {
+      return Futures.immediateFuture(handler.handle(request));
+    } catch (IOException | RuntimeException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+
+  /**
+   * Returns the number of requests sent through this transport.
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+}
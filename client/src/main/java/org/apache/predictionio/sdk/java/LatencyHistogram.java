@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram records durations into log-linear buckets: every power of two of microseconds
+ * is split into 8 buckets, so reported percentiles are within 12.5% of the recorded values.
+ * Recording is lock-free and allocation-free, and may be called from any thread.
+ */
+class LatencyHistogram {
+
+  private static final int subBucketBits = 3;
+  private static final int subBuckets = 1 << subBucketBits;
+  // enough for durations up to 2^40 microseconds (about 12 days)
+  private static final int bucketCount = (40 - subBucketBits + 1) * subBuckets + subBuckets;
+
+  private final AtomicLongArray counts = new AtomicLongArray(bucketCount);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /**
+   * Records a duration.
+   */
+  void record(long nanos) {
+    long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0);
+    counts.incrementAndGet(indexOf(micros));
+    count.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    long max = maxMicros.get();
+    while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  long getCount() {
+    return count.get();
+  }
+
+  double getMeanMillis() {
+    long n = count.get();
+    return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+  }
+
+  double getMaxMillis() {
+    return maxMicros.get() / 1000.0;
+  }
+
+  /**
+   * Returns the duration in milliseconds below which the given fraction of recorded durations
+   * fall, or 0 if nothing was recorded.
+   *
+   * @param quantile a fraction between 0 and 1, such as 0.99
+   */
+  double getPercentileMillis(double quantile) {
+    return getPercentileMicros(quantile) / 1000.0;
+  }
+
+  long getPercentileMicros(double quantile) {
+    long total = 0;
+    long[] snapshot = new long[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(Math.min(Math.max(quantile, 0), 1) * total);
+    long seen = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      seen += snapshot[i];
+      if (seen >= Math.max(rank, 1)) {
+        return Math.min(upperBoundOf(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  static int indexOf(long micros) {
+    if (micros < subBuckets) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int index = (exponent - subBucketBits + 1) * subBuckets
+        + (int) ((micros >>> (exponent - subBucketBits)) & (subBuckets - 1));
+    return Math.min(index, bucketCount - 1);
+  }
+
+  static long upperBoundOf(int index) {
+    if (index < subBuckets) {
+      return index;
+    }
+    int exponent = index / subBuckets + subBucketBits - 1;
+    long sub = index % subBuckets;
+    long lower = (1L << exponent) + (sub << (exponent - subBucketBits));
+    return lower + (1L << (exponent - subBucketBits)) - 1;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+/**
+ * Receives a callback for every request a client sends. Register one with {@link
+ * BaseClient#addMetricsListener(MetricsListener)} to forward client metrics to a monitoring
+ * system. Methods are called from HTTP client threads and should return quickly.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public interface MetricsListener {
+
+  /**
+   * Called when a response is received.
+   *
+   * @param endpoint the endpoint, such as {@code /events.json}
+   * @param status HTTP status of the response
+   * @param latencyNanos time from sending the request to receiving the whole response
+   * @param bytesSent size of the request body
+   * @param bytesReceived size of the response body
+   */
+  void onResponse(String endpoint, int status, long latencyNanos, long bytesSent,
+      long bytesReceived);
+
+  /**
+   * Called when a request fails without a response, for example on a timeout.
+   *
+   * @param endpoint the endpoint, such as {@code /events.json}
+   * @param cause the failure
+   * @param latencyNanos time from sending the request to the failure
+   */
+  void onFailure(String endpoint, Throwable cause, long latencyNanos);
+}
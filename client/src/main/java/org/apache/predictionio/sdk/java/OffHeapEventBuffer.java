@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OffHeapEventBuffer holds events waiting to be sent to the batch events endpoint outside the
+ * Java heap. Events passed to {@link #offer(Event)} are serialized right away into segments of
+ * one direct memory arena that is allocated once, so a slow Event Server makes neither the heap
+ * nor the memory use grow: once all segments are full, new events are refused.
+ *
+ * <p>Every segment holds one batch, laid out as the JSON array the batch events endpoint expects,
+ * so a full segment is sent as a request body as it is. A segment is sent once it holds 50
+ * events or no further event fits, and partial segments are sent at every linger interval.
+ * Batches the server fails to accept as a whole are retried until it does; events the server
+ * rejects individually are counted by {@link #getRejectedCount()} and not retried.
+ *
+ * <p>Unlike an {@link EventSpool}, buffered events are lost if the application stops.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class OffHeapEventBuffer implements Closeable {
+
+  private static final int defaultSegmentSize = 64 * 1024;
+  private static final long defaultLingerMillis = 200;
+
+  private final EventClient client;
+  private final int maxInFlight;
+  private final int segmentSize;
+  private final ScheduledFuture<?> lingerTask;
+
+  // guarded by this
+  private final ArrayDeque<Segment> free = new ArrayDeque<>();
+  private final ArrayDeque<Segment> sealed = new ArrayDeque<>();
+  private Segment current;
+  private int inFlight;
+  private int inFlightEvents;
+  private boolean closed;
+
+  private final AtomicLong drainedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Creates a buffer of 64 KB segments, sending partial batches after 200 milliseconds and
+   * keeping as many batch requests in flight as the client has connections.
+   *
+   * @param client the client used to send buffered events
+   * @param capacityBytes size in bytes of the off-heap memory to allocate
+   */
+  public OffHeapEventBuffer(EventClient client, long capacityBytes) {
+    this(client, capacityBytes, defaultSegmentSize, defaultLingerMillis, client.threadLimit);
+  }
+
+  /**
+   * @param client the client used to send buffered events
+   * @param capacityBytes size in bytes of the off-heap memory to allocate
+   * @param segmentSize size in bytes of each segment, which bounds the size of a batch and of an
+   *     event
+   * @param lingerMillis maximum time in milliseconds an event waits for its batch to fill up
+   * @param maxInFlight maximum number of batch requests in flight at the same time
+   */
+  public OffHeapEventBuffer(EventClient client, long capacityBytes, int segmentSize,
+      long lingerMillis, int maxInFlight) {
+    if (segmentSize < 1024) {
+      throw new IllegalArgumentException("segment size must be at least 1024 bytes");
+    }
+    if (capacityBytes < 2L * segmentSize || capacityBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "capacity must hold at least two segments and at most 2 GB");
+    }
+    if (lingerMillis <= 0) {
+      throw new IllegalArgumentException("linger time must be positive");
+    }
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("at least one request must be allowed in flight");
+    }
+    this.client = client;
+    this.maxInFlight = maxInFlight;
+    this.segmentSize = segmentSize;
+
+    // one arena, sliced into segments that are reused for the life of the buffer
+    ByteBuffer arena = ByteBuffer.allocateDirect((int) capacityBytes);
+    for (int offset = 0; offset + segmentSize <= arena.capacity(); offset += segmentSize) {
+      arena.limit(offset + segmentSize).position(offset);
+      free.add(new Segment(arena.slice()));
+    }
+
+    this.lingerTask = client.scheduler().scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        // also resends batches that were not accepted
+        flush();
+      }
+    }, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Serializes an event into the buffer.
+   *
+   * @param event the event to buffer
+   * @return true if the event was buffered, or false if the buffer is full
+   * @throws IllegalArgumentException if the event is larger than a segment
+   * @throws IllegalStateException if the buffer is closed
+   */
+  public boolean offer(Event event) {
+    Utf8JsonWriter writer = null;
+    byte[] record = null;
+    int length;
+    EventCodec codec = client.getCodec();
+    if (codec instanceof StreamingEventCodec) {
+      // serialized in the thread's reusable writer, without allocating
+      writer = Utf8JsonWriter.get();
+      StreamingEventCodec.writeEvent(writer, event);
+      length = writer.size();
+    } else {
+      record = codec.encode(event);
+      length = record.length;
+    }
+
+    boolean drain = false;
+    boolean buffered = false;
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("buffer is closed");
+      }
+      // an empty segment holds the event between its brackets
+      if (length + 2 > segmentSize) {
+        throw new IllegalArgumentException("event of " + length
+            + " bytes does not fit in a segment");
+      }
+      if (current != null && !current.fits(length)) {
+        seal();
+        drain = true;
+      }
+      if (current == null && !free.isEmpty()) {
+        current = free.poll().reset();
+      }
+      if (current != null) {
+        if (writer != null) {
+          current.append(writer.buffer(), length);
+        } else {
+          current.append(record, length);
+        }
+        buffered = true;
+        if (current.count == EventBatcher.MAX_BATCH_SIZE) {
+          seal();
+          drain = true;
+        }
+      }
+    }
+    if (drain) {
+      drain();
+    }
+    return buffered;
+  }
+
+  /**
+   * Sends the events buffered so far without waiting for their batches to fill up.
+   */
+  public void flush() {
+    synchronized (this) {
+      if (current != null && current.count > 0) {
+        seal();
+      }
+    }
+    drain();
+  }
+
+  /**
+   * Returns the number of events buffered and not yet accepted by the Event Server.
+   */
+  public synchronized int getPendingCount() {
+    int pending = current != null ? current.count : 0;
+    for (Segment segment : sealed) {
+      pending += segment.count;
+    }
+    return pending + inFlightEvents;
+  }
+
+  /**
+   * Returns the number of events sent to and accepted by the Event Server.
+   */
+  public long getDrainedCount() {
+    return drainedCount.get();
+  }
+
+  /**
+   * Returns the number of events sent to the Event Server and individually rejected by it.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Refuses new events, sends the buffered ones and waits for their batch requests to complete.
+   * Events in batches that are not accepted are discarded.
+   */
+  @Override
+  public void close() {
+    lingerTask.cancel(false);
+    synchronized (this) {
+      closed = true;
+    }
+    flush();
+    synchronized (this) {
+      while (inFlight > 0 || !sealed.isEmpty()) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  // called with the lock held
+  private void seal() {
+    current.seal();
+    sealed.add(current);
+    current = null;
+  }
+
+  /**
+   * Sends sealed segments while fewer than {@code maxInFlight} batch requests are in flight.
+   */
+  private void drain() {
+    while (true) {
+      Segment segment;
+      synchronized (this) {
+        if (inFlight >= maxInFlight || sealed.isEmpty()) {
+          return;
+        }
+        segment = sealed.poll();
+        inFlight++;
+        inFlightEvents += segment.count;
+      }
+      send(segment);
+    }
+  }
+
+  private void send(final Segment segment) {
+    final FutureAPIResponse response;
+    try {
+      response = client.createEventsAsFuture(segment.body());
+    } catch (IOException | RuntimeException e) {
+      complete(segment, null);
+      return;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        APIResponse result = null;
+        try {
+          result = response.get();
+        } catch (InterruptedException | ExecutionException e) {
+          // retried
+        }
+        complete(segment, result);
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  private void complete(Segment segment, APIResponse result) {
+    boolean retry;
+    boolean accepted = result != null && result.getStatus() == BaseClient.HTTP_OK;
+    if (accepted) {
+      int rejected = 0;
+      try {
+        BatchResult results = BatchResult.parse(result.getReader(), segment.count);
+        for (int i = 0; i < segment.count; i++) {
+          if (i >= results.size() || !results.isCreated(i)) {
+            rejected++;
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // the batch was accepted, so an unexpected response body only affects the counters
+      }
+      rejectedCount.addAndGet(rejected);
+      drainedCount.addAndGet(segment.count - rejected);
+    }
+    synchronized (this) {
+      inFlight--;
+      inFlightEvents -= segment.count;
+      if (accepted) {
+        segment.count = 0;
+        free.add(segment);
+      } else if (closed) {
+        // nothing is retried once closed
+        segment.count = 0;
+        free.add(segment);
+      } else {
+        // sent again, first, on the next drain
+        sealed.addFirst(segment);
+      }
+      notifyAll();
+      retry = !accepted && !closed;
+    }
+    if (!retry) {
+      drain();
+    }
+  }
+
+  /**
+   * A slice of the arena holding one batch as a JSON array.
+   */
+  private static class Segment {
+    final ByteBuffer buffer;
+    int count;
+
+    Segment(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    Segment reset() {
+      buffer.clear();
+      buffer.put((byte) '[');
+      count = 0;
+      return this;
+    }
+
+    /**
+     * Returns whether an event fits, along with its separator and the closing bracket.
+     */
+    boolean fits(int length) {
+      return (count > 0 ? 1 : 0) + length + 1 <= buffer.remaining();
+    }
+
+    void append(byte[] record, int length) {
+      if (count > 0) {
+        buffer.put((byte) ',');
+      }
+      buffer.put(record, 0, length);
+      count++;
+    }
+
+    void seal() {
+      buffer.put((byte) ']');
+      buffer.flip();
+    }
+
+    /**
+     * Returns the batch request body; the only copy of the events on the heap, for as long as
+     * the request takes.
+     */
+    byte[] body() {
+      byte[] body = new byte[buffer.remaining()];
+      buffer.duplicate().get(body);
+      return body;
+    }
+  }
+}
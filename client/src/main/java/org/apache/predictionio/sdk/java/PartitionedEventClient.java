@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * PartitionedEventClient sends events to several Event Servers, routing each event by a
+ * consistent hash of its entity type and entity ID. All events of an entity go to the same
+ * server, so they are stored in the order a single {@link EventClient} would store them, while
+ * different entities are spread over all servers. Adding or removing a server only moves the
+ * entities of that server.
+ *
+ * <pre>
+ * PartitionedEventClient client = new PartitionedEventClient(accessKey,
+ *     Arrays.asList("http://events-1:7070", "http://events-2:7070"), 4, 0, 5);
+ * client.createEvent(event);
+ * </pre>
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class PartitionedEventClient implements Closeable {
+
+  /**
+   * Creates the {@link EventClient} for an Event Server, so that every server's client can be
+   * configured the same way, including servers added later.
+   */
+  public interface ClientFactory {
+    EventClient create(String eventUrl);
+  }
+
+  private static final int virtualNodes = 100;
+
+  private final ClientFactory factory;
+  private final ConcurrentMap<String, EventClient> clients = new ConcurrentHashMap<>();
+  private final ConsistentHashRing ring = new ConsistentHashRing(virtualNodes);
+
+  /**
+   * @param accessKey the access key that this client will use to communicate with the API
+   * @param eventUrls the URLs of the Event Servers
+   * @param threadLimit maximum number of simultaneous threads (connections) to each server
+   * @param queueSize size of each server's queue
+   * @param timeout timeout in seconds for the connections
+   */
+  public PartitionedEventClient(final String accessKey, List<String> eventUrls,
+      final int threadLimit, final int queueSize, final int timeout) {
+    this(eventUrls, new ClientFactory() {
+      public EventClient create(String eventUrl) {
+        return new EventClient(accessKey, eventUrl, threadLimit, queueSize, timeout);
+      }
+    });
+  }
+
+  /**
+   * @param eventUrls the URLs of the Event Servers
+   * @param factory creates the client of each server
+   */
+  public PartitionedEventClient(List<String> eventUrls, ClientFactory factory) {
+    if (eventUrls.isEmpty()) {
+      throw new IllegalArgumentException("at least one event server URL is required");
+    }
+    this.factory = factory;
+    for (String url : eventUrls) {
+      addEventServer(url);
+    }
+  }
+
+  /**
+   * Starts routing a share of the entities to another Event Server.
+   */
+  public synchronized void addEventServer(String eventUrl) {
+    if (clients.containsKey(eventUrl)) {
+      throw new IllegalArgumentException(eventUrl + " is already a partition");
+    }
+    clients.put(eventUrl, factory.create(eventUrl));
+    ring.add(eventUrl);
+  }
+
+  /**
+   * Stops routing entities to an Event Server; its entities move to the remaining servers. The
+   * server's client is flushed and closed, so requests sent to it asynchronously should have
+   * completed first.
+   */
+  public synchronized void removeEventServer(String eventUrl) {
+    if (!clients.containsKey(eventUrl)) {
+      throw new IllegalArgumentException(eventUrl + " is not a partition");
+    }
+    if (clients.size() == 1) {
+      throw new IllegalStateException("cannot remove the last event server");
+    }
+    ring.remove(eventUrl);
+    clients.remove(eventUrl).close();
+  }
+
+  /**
+   * Returns the URLs of the Event Servers.
+   */
+  public List<String> getEventUrls() {
+    return new ArrayList<>(clients.keySet());
+  }
+
+  /**
+   * Returns the client of the Event Server an entity's events are routed to, for example to
+   * read back events or to use the user and item helper methods.
+   */
+  public EventClient getClient(String entityType, String entityId) {
+    String key = partitionKey(entityType, entityId);
+    while (true) {
+      EventClient client = clients.get(ring.get(key));
+      if (client != null) {
+        return client;
+      }
+      // the server was removed after the ring lookup; the ring no longer has it
+    }
+  }
+
+  /**
+   * Returns the client of each Event Server, by URL.
+   */
+  public Map<String, EventClient> getClients() {
+    return new LinkedHashMap<>(clients);
+  }
+
+  /**
+   * Sends an asynchronous create event request to the event's server.
+   */
+  public FutureAPIResponse createEventAsFuture(Event event) throws IOException {
+    return clientFor(event).createEventAsFuture(event);
+  }
+
+  /**
+   * Sends a synchronous create event request to the event's server.
+   *
+   * @return event ID from the server
+   */
+  public String createEvent(Event event)
+      throws ExecutionException, InterruptedException, IOException {
+    EventClient client = clientFor(event);
+    return client.createEvent(client.createEventAsFuture(event));
+  }
+
+  /**
+   * Sends the events to their servers in batch requests, one or more per server, all in flight
+   * at the same time.
+   *
+   * @return event IDs from the servers, in the order of the events
+   * @throws IOException indicates an error from one of the API responses
+   */
+  public List<String> createEvents(List<Event> events)
+      throws ExecutionException, InterruptedException, IOException {
+    // positions of the events of each server, in order
+    Map<EventClient, List<Integer>> partitions = new LinkedHashMap<>();
+    for (int i = 0; i < events.size(); i++) {
+      EventClient client = clientFor(events.get(i));
+      List<Integer> positions = partitions.get(client);
+      if (positions == null) {
+        positions = new ArrayList<>();
+        partitions.put(client, positions);
+      }
+      positions.add(i);
+    }
+
+    List<EventClient> batchClients = new ArrayList<>();
+    List<List<Integer>> batchPositions = new ArrayList<>();
+    List<FutureAPIResponse> responses = new ArrayList<>();
+    for (Map.Entry<EventClient, List<Integer>> partition : partitions.entrySet()) {
+      List<Integer> positions = partition.getValue();
+      for (int from = 0; from < positions.size(); from += EventBatcher.MAX_BATCH_SIZE) {
+        List<Integer> chunk = positions.subList(from,
+            Math.min(from + EventBatcher.MAX_BATCH_SIZE, positions.size()));
+        List<Event> batch = new ArrayList<>(chunk.size());
+        for (int position : chunk) {
+          batch.add(events.get(position));
+        }
+        batchClients.add(partition.getKey());
+        batchPositions.add(chunk);
+        responses.add(partition.getKey().createEventsAsFuture(batch));
+      }
+    }
+
+    String[] eventIds = new String[events.size()];
+    for (int i = 0; i < responses.size(); i++) {
+      List<String> ids = batchClients.get(i).createEvents(responses.get(i));
+      List<Integer> positions = batchPositions.get(i);
+      for (int j = 0; j < positions.size() && j < ids.size(); j++) {
+        eventIds[positions.get(j)] = ids.get(j);
+      }
+    }
+    return Arrays.asList(eventIds);
+  }
+
+  /**
+   * Sends the buffered events of every server whose client has batching enabled.
+   */
+  public void flush() {
+    for (EventClient client : clients.values()) {
+      client.flush();
+    }
+  }
+
+  /**
+   * Closes the clients of all servers.
+   */
+  @Override
+  public synchronized void close() {
+    for (EventClient client : clients.values()) {
+      client.close();
+    }
+  }
+
+  private EventClient clientFor(Event event) {
+    return getClient(event.getEntityType(), event.getEntityId());
+  }
+
+  static String partitionKey(String entityType, String entityId) {
+    return entityType + "/" + entityId;
+  }
+}
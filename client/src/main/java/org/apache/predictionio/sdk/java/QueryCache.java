@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryCache keeps successful query results of an {@link EngineClient} in memory for a limited
+ * time. Entries are keyed by the canonical JSON form of the query, and the least recently used
+ * entries are evicted once the entry or size limit is exceeded.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ * @see EngineClient#enableQueryCache(long, int, long)
+ */
+public class QueryCache {
+
+  private final long ttlNanos;
+  private final int maxEntries;
+  private final long maxBytes;
+
+  // access-ordered, so iteration starts at the least recently used entry
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * @param ttlMillis time in milliseconds a result stays valid after it was received
+   * @param maxEntries maximum number of cached results
+   * @param maxBytes maximum approximate size in bytes of all cached queries and results, or 0 for
+   *     no size limit
+   */
+  QueryCache(long ttlMillis, int maxEntries, long maxBytes) {
+    if (ttlMillis <= 0) {
+      throw new IllegalArgumentException("TTL must be positive");
+    }
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maximum number of entries must be positive");
+    }
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maximum size must not be negative");
+    }
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the cached result of a query, or null if there is none or it has expired.
+   */
+  APIResponse get(String query) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(query);
+      if (entry != null && System.nanoTime() - entry.createdNanos > ttlNanos) {
+        remove(query);
+        entry = null;
+      }
+    }
+    if (entry == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    // APIResponse is mutable, so every caller gets its own copy
+    return new APIResponse(entry.status, entry.message);
+  }
+
+  /**
+   * Caches the result of a query.
+   */
+  void put(String query, APIResponse response) {
+    Entry entry = new Entry(response.getStatus(), response.getMessage(), System.nanoTime(),
+        weigh(query, response.getMessage()));
+    if (maxBytes > 0 && entry.weight > maxBytes) {
+      return;
+    }
+    synchronized (this) {
+      remove(query);
+      entries.put(query, entry);
+      bytes += entry.weight;
+      Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+      while (entries.size() > maxEntries || (maxBytes > 0 && bytes > maxBytes)) {
+        bytes -= eldest.next().getValue().weight;
+        eldest.remove();
+        evictionCount.incrementAndGet();
+      }
+    }
+  }
+
+  private void remove(String query) {
+    Entry old = entries.remove(query);
+    if (old != null) {
+      bytes -= old.weight;
+    }
+  }
+
+  /**
+   * Removes all cached results.
+   */
+  public synchronized void invalidateAll() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Returns the number of cached results, including expired ones not yet evicted.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the approximate size in bytes of all cached queries and results.
+   */
+  public synchronized long sizeInBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns the number of queries answered from the cache.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of queries that had to be sent to the engine.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the number of results evicted to stay within the entry and size limits.
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  private static long weigh(String query, String message) {
+    // two bytes per char plus a rough allowance for the objects holding them
+    return 2L * (query.length() + (message == null ? 0 : message.length())) + 128;
+  }
+
+  private static class Entry {
+    final int status;
+    final String message;
+    final long createdNanos;
+    final long weight;
+
+    Entry(int status, String message, long createdNanos, long weight) {
+      this.status = status;
+      this.message = message;
+      this.createdNanos = createdNanos;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+/**
+ * What a client does with a new request when {@code threadLimit} requests are in flight and
+ * {@code queueSize} requests are already waiting.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ * @see BaseClient#setRejectionPolicy(RejectionPolicy, long)
+ */
+public enum RejectionPolicy {
+
+  /**
+   * The calling thread waits until the request can be queued, or the timeout expires and a {@link
+   * RequestRejectedException} is thrown.
+   */
+  BLOCK,
+
+  /**
+   * A {@link RequestRejectedException} is thrown immediately.
+   */
+  FAIL_FAST,
+
+  /**
+   * The oldest waiting request is failed with a {@link RequestRejectedException} to make room for
+   * the new one. Behaves like {@link #FAIL_FAST} if the queue size is 0.
+   */
+  DROP_OLDEST,
+
+  /**
+   * The request is sent immediately, ignoring the thread limit, and the calling thread waits for
+   * its response. This slows producers down to the rate the API can handle. Each calling thread
+   * may add one request beyond {@code threadLimit}; queued requests are only sent once the number
+   * of requests in flight is back under the limit.
+   */
+  CALLER_RUNS
+}
@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReplicaSet spreads requests over several servers running the same engine. It picks a server by
+ * {@link LoadBalancing}, or by consistent hashing of an affinity key, and stops using servers
+ * that fail repeatedly or are much slower than the others until they recover.
+ */
+class ReplicaSet {
+
+  private static final int virtualNodes = 100;
+  // weight of the latest latency in the moving average
+  private static final double ewmaWeight = 0.2;
+  // latencies measured before a replica can be ejected for being slow
+  private static final int minSlowSamples = 20;
+
+  private final Map<String, Replica> replicas;
+  private final List<Replica> replicaList;
+  private final ConsistentHashRing ring;
+  private final Random random = new Random();
+
+  private volatile LoadBalancing loadBalancing = LoadBalancing.POWER_OF_TWO_CHOICES;
+  private volatile int failureThreshold = 3;
+  private volatile double slowFactor = 3;
+  private volatile long ejectNanos = TimeUnit.SECONDS.toNanos(30);
+
+  // guarded by this
+  private ScheduledFuture<?> healthChecks;
+
+  ReplicaSet(List<String> urls) {
+    if (urls.isEmpty()) {
+      throw new IllegalArgumentException("at least one URL is required");
+    }
+    Map<String, Replica> map = new LinkedHashMap<>();
+    for (String url : urls) {
+      map.put(url, new Replica(url));
+    }
+    this.replicas = Collections.unmodifiableMap(map);
+    this.replicaList = new ArrayList<>(map.values());
+    this.ring = new ConsistentHashRing(virtualNodes, map.keySet());
+  }
+
+  void setLoadBalancing(LoadBalancing loadBalancing) {
+    if (loadBalancing == null) {
+      throw new NullPointerException("loadBalancing");
+    }
+    this.loadBalancing = loadBalancing;
+  }
+
+  void setEjection(int failureThreshold, double slowFactor, long ejectMillis) {
+    if (failureThreshold < 1 || slowFactor <= 1 || ejectMillis < 0) {
+      throw new IllegalArgumentException(
+          "need failureThreshold >= 1, slowFactor > 1 and ejectMillis >= 0");
+    }
+    this.failureThreshold = failureThreshold;
+    this.slowFactor = slowFactor;
+    this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+  }
+
+  List<String> getUrls() {
+    return new ArrayList<>(replicas.keySet());
+  }
+
+  List<String> getHealthyUrls() {
+    long now = System.nanoTime();
+    List<String> urls = new ArrayList<>();
+    for (Replica replica : replicaList) {
+      if (replica.isHealthy(now)) {
+        urls.add(replica.url);
+      }
+    }
+    return urls;
+  }
+
+  /**
+   * Picks a replica for a request.
+   *
+   * @param affinityKey key whose requests should go to the same replica, or null
+   * @param exclude a replica to avoid if possible, such as the one a hedged request went to
+   */
+  Replica choose(String affinityKey, final Replica exclude) {
+    if (replicaList.size() == 1) {
+      return replicaList.get(0);
+    }
+    final long now = System.nanoTime();
+    if (affinityKey != null) {
+      String url = ring.get(affinityKey, new Predicate<String>() {
+        public boolean apply(String url) {
+          Replica replica = replicas.get(url);
+          return replica != exclude && replica.isHealthy(now);
+        }
+      });
+      if (url != null) {
+        return replicas.get(url);
+      }
+    }
+
+    List<Replica> candidates = new ArrayList<>(replicaList.size());
+    for (Replica replica : replicaList) {
+      if (replica != exclude && replica.isHealthy(now)) {
+        candidates.add(replica);
+      }
+    }
+    if (candidates.isEmpty()) {
+      // never refuse to send: fall back to every replica but the excluded one
+      for (Replica replica : replicaList) {
+        if (replica != exclude) {
+          candidates.add(replica);
+        }
+      }
+    }
+
+    if (loadBalancing == LoadBalancing.LEAST_OUTSTANDING || candidates.size() == 1) {
+      Replica best = null;
+      for (Replica replica : candidates) {
+        if (best == null || replica.outstanding.get() < best.outstanding.get()) {
+          best = replica;
+        }
+      }
+      return best;
+    }
+    int first;
+    int second;
+    synchronized (random) {
+      first = random.nextInt(candidates.size());
+      second = random.nextInt(candidates.size() - 1);
+    }
+    if (second >= first) {
+      second++;
+    }
+    Replica a = candidates.get(first);
+    Replica b = candidates.get(second);
+    return a.outstanding.get() <= b.outstanding.get() ? a : b;
+  }
+
+  /**
+   * Called before a request is sent to a replica.
+   */
+  void onSend(Replica replica) {
+    replica.outstanding.incrementAndGet();
+  }
+
+  /**
+   * Called when a request to a replica completes; a null response means it failed.
+   */
+  void onComplete(Replica replica, APIResponse response, long latencyNanos, boolean cancelled) {
+    try {
+      if (cancelled) {
+        return;
+      }
+      if (response == null || response.getStatus() >= 500) {
+        if (replica.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+          eject(replica);
+        }
+        return;
+      }
+      replica.consecutiveFailures.set(0);
+      replica.recordLatency(latencyNanos / 1e6);
+      if (isSlow(replica)) {
+        eject(replica);
+      }
+    } finally {
+      // last, so the replica does not look idle before an ejection takes effect
+      replica.outstanding.decrementAndGet();
+    }
+  }
+
+  private boolean isSlow(Replica replica) {
+    if (replica.samples < minSlowSamples || replicaList.size() < 3) {
+      return false;
+    }
+    double total = 0;
+    int others = 0;
+    for (Replica other : replicaList) {
+      if (other != replica && other.samples >= minSlowSamples) {
+        total += other.ewmaMillis;
+        others++;
+      }
+    }
+    return others > 0 && replica.ewmaMillis > slowFactor * total / others;
+  }
+
+  private void eject(Replica replica) {
+    replica.ejectedUntil = System.nanoTime() + ejectNanos;
+    replica.ejected = true;
+  }
+
+  /**
+   * Probes every replica with a status request at a fixed interval. Replicas failing the probe
+   * are ejected; ejected replicas passing it are readmitted.
+   */
+  synchronized void startHealthChecks(final BaseClient client, long intervalMillis) {
+    if (healthChecks != null) {
+      healthChecks.cancel(false);
+    }
+    healthChecks = client.scheduler().scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        for (Replica replica : replicaList) {
+          probe(client, replica);
+        }
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void probe(BaseClient client, final Replica replica) {
+    if (!replica.probing.compareAndSet(false, true)) {
+      // the previous probe is still waiting for a response
+      return;
+    }
+    final FutureAPIResponse response;
+    try {
+      // sent past the request queue, like prewarming, so that a busy client neither blocks the
+      // scheduler thread nor keeps its servers from being checked
+      response = client.send("/", HttpRequest.get(replica.url));
+    } catch (RuntimeException e) {
+      // the client is closed
+      replica.probing.set(false);
+      return;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        replica.probing.set(false);
+        boolean healthy;
+        try {
+          healthy = response.get().getStatus() == BaseClient.HTTP_OK;
+        } catch (InterruptedException | ExecutionException e) {
+          healthy = false;
+        }
+        if (healthy) {
+          replica.consecutiveFailures.set(0);
+          if (replica.ejected) {
+            // start over, so a replica ejected for being slow gets a fair chance
+            replica.samples = 0;
+            replica.ejected = false;
+          }
+        } else {
+          eject(replica);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * A server in the set.
+   */
+  static class Replica {
+    final String url;
+    final AtomicInteger outstanding = new AtomicInteger();
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+    final AtomicBoolean probing = new AtomicBoolean();
+    volatile boolean ejected;
+    volatile long ejectedUntil;
+    // approximate under concurrent updates, which is fine for outlier detection
+    volatile double ewmaMillis;
+    volatile int samples;
+
+    Replica(String url) {
+      this.url = url;
+    }
+
+    boolean isHealthy(long now) {
+      if (!ejected) {
+        return true;
+      }
+      if (now - ejectedUntil >= 0) {
+        // the ejection has expired; let traffic decide again
+        ejected = false;
+        consecutiveFailures.set(0);
+        samples = 0;
+        return true;
+      }
+      return false;
+    }
+
+    void recordLatency(double millis) {
+      ewmaMillis = samples == 0 ? millis : ewmaMillis + ewmaWeight * (millis - ewmaMillis);
+      samples++;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RequestQueue limits the number of requests a client has in flight. Requests beyond the limit
+ * wait in a bounded queue and are sent in order as earlier requests complete; once the queue is
+ * full, the {@link RejectionPolicy} decides what happens.
+ */
+class RequestQueue {
+
+  private final BaseClient owner;
+  private final int maxInFlight;
+  private final int queueSize;
+  private volatile RejectionPolicy policy = RejectionPolicy.BLOCK;
+  private volatile long blockTimeoutNanos;
+
+  // guarded by this
+  private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+  private int inFlight;
+  private int completions;
+  private boolean draining;
+
+  /**
+   * @param owner the client whose requests are queued
+   * @param maxInFlight maximum number of requests in flight
+   * @param queueSize maximum number of requests waiting to be sent
+   */
+  RequestQueue(BaseClient owner, int maxInFlight, int queueSize) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("thread limit must be positive");
+    }
+    if (queueSize < 0) {
+      throw new IllegalArgumentException("queue size must not be negative");
+    }
+    this.owner = owner;
+    this.maxInFlight = maxInFlight;
+    this.queueSize = queueSize;
+  }
+
+  void setPolicy(RejectionPolicy policy, long blockTimeoutMillis) {
+    if (policy == null) {
+      throw new NullPointerException("policy");
+    }
+    this.policy = policy;
+    this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(blockTimeoutMillis, 0));
+  }
+
+  synchronized int getQueueDepth() {
+    return queue.size();
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Sends a request now, or queues it if the in-flight limit is reached.
+   *
+   * @param endpoint the endpoint the request is counted against in the client metrics
+   * @throws RequestRejectedException if the request is neither sent nor queued
+   * @throws InterruptedIOException if interrupted while blocked
+   */
+  FutureAPIResponse submit(String endpoint, HttpRequest request) throws IOException {
+    Pending dropped = null;
+    Pending queued = null;
+    boolean callerRuns = false;
+    synchronized (this) {
+      long deadline = System.nanoTime() + blockTimeoutNanos;
+      while (inFlight >= maxInFlight && queue.size() >= queueSize) {
+        RejectionPolicy p = policy;
+        if (p == RejectionPolicy.BLOCK) {
+          long remaining = deadline - System.nanoTime();
+          if (blockTimeoutNanos > 0 && remaining <= 0) {
+            throw new RequestRejectedException("timed out waiting for room in the request queue");
+          }
+          try {
+            if (blockTimeoutNanos > 0) {
+              TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } else {
+              wait();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the request queue");
+          }
+        } else if (p == RejectionPolicy.DROP_OLDEST && !queue.isEmpty()) {
+          dropped = queue.poll();
+          break;
+        } else if (p == RejectionPolicy.CALLER_RUNS) {
+          callerRuns = true;
+          break;
+        } else {
+          throw new RequestRejectedException("request queue is full");
+        }
+      }
+
+      if (!callerRuns && inFlight >= maxInFlight) {
+        queued = new Pending(endpoint, request);
+        queue.add(queued);
+      } else {
+        inFlight++;
+      }
+    }
+
+    if (dropped != null) {
+      dropped.future.setException(
+          new RequestRejectedException("dropped from the full request queue"));
+    }
+    if (queued != null) {
+      return new FutureAPIResponse(queued.future);
+    }
+
+    FutureAPIResponse response = dispatch(endpoint, request);
+    if (callerRuns) {
+      try {
+        response.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // reported through the returned future
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Sends a request now if a slot is free, or queues it if {@code mayQueue} is set and the queue
+   * has room, without ever waiting and regardless of the rejection policy. Used on the scheduler
+   * thread, which must not block.
+   *
+   * @param endpoint the endpoint the request is counted against in the client metrics
+   * @param mayQueue whether the request may wait in the queue if no slot is free
+   * @return the response, or null if the request was neither sent nor queued
+   */
+  FutureAPIResponse trySubmit(String endpoint, HttpRequest request, boolean mayQueue) {
+    Pending queued = null;
+    synchronized (this) {
+      if (inFlight < maxInFlight) {
+        inFlight++;
+      } else if (mayQueue && queue.size() < queueSize) {
+        queued = new Pending(endpoint, request);
+        queue.add(queued);
+      } else {
+        return null;
+      }
+    }
+    if (queued != null) {
+      return new FutureAPIResponse(queued.future);
+    }
+    return dispatch(endpoint, request);
+  }
+
+  private FutureAPIResponse dispatch(String endpoint, HttpRequest request) {
+    final FutureAPIResponse response;
+    try {
+      response = owner.send(endpoint, request);
+    } catch (RuntimeException e) {
+      onComplete();
+      throw e;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        onComplete();
+      }
+    }, MoreExecutors.directExecutor());
+    return response;
+  }
+
+  private void dispatch(final Pending pending) {
+    final FutureAPIResponse response;
+    try {
+      response = dispatch(pending.endpoint, pending.request);
+    } catch (RuntimeException e) {
+      pending.future.setException(e);
+      return;
+    }
+    response.addListener(new Runnable() {
+      public void run() {
+        try {
+          pending.future.set(response.get());
+        } catch (InterruptedException | ExecutionException e) {
+          pending.future.setException(e.getCause() != null ? e.getCause() : e);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Frees the slot of a completed request, or passes it on to the next queued request. A
+   * transport may complete requests before returning them, so completions that happen while a
+   * thread is already dispatching are counted and handled by that thread's loop, instead of
+   * recursing once per queued request.
+   */
+  private void onComplete() {
+    synchronized (this) {
+      completions++;
+      if (draining) {
+        return;
+      }
+      draining = true;
+    }
+    while (true) {
+      Pending next;
+      synchronized (this) {
+        if (completions == 0) {
+          draining = false;
+          return;
+        }
+        completions--;
+        // while CALLER_RUNS requests exceed the limit, freed slots are not passed on
+        next = inFlight <= maxInFlight ? queue.poll() : null;
+        if (next == null) {
+          inFlight--;
+        }
+        notifyAll();
+      }
+      if (next == null) {
+        continue;
+      }
+      if (next.future.isCancelled()) {
+        // the slot passes on to the request after it
+        synchronized (this) {
+          completions++;
+        }
+        continue;
+      }
+      // the slot passes on to the next request
+      dispatch(next);
+    }
+  }
+
+  private static class Pending {
+    final String endpoint;
+    final HttpRequest request;
+    final SettableFuture<APIResponse> future = SettableFuture.create();
+
+    Pending(String endpoint, HttpRequest request) {
+      this.endpoint = endpoint;
+      this.request = request;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RetryPolicy decides whether and when a client resends a failed request. Retries are delayed by
+ * exponential backoff with full jitter, so that clients failing at the same time do not retry at
+ * the same time, and limited by a retry budget, so that retries add at most a fixed fraction to
+ * the load on a struggling server.
+ *
+ * <p>Only idempotent requests, such as queries and event lookups, are retried after responses
+ * with status 429, 500, 502, 503 or 504, timeouts and connection resets. Creating events is not
+ * idempotent, because a retried event that had already been stored is stored twice; such requests
+ * are only retried if the connection could not be established at all, unless {@link
+ * Builder#retryNonIdempotent(boolean)} is set.
+ *
+ * <pre>
+ * client.setRetryPolicy(RetryPolicy.builder().maxAttempts(4).build());
+ * </pre>
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class RetryPolicy {
+
+  // fixed-point retry budget, in thousandths of a retry
+  private static final long tokenScale = 1000;
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final boolean retryNonIdempotent;
+  private final long budgetDeposit;
+  private final long budgetMax;
+  private final AtomicLong budget;
+  private final Random random = new Random();
+
+  private RetryPolicy(Builder builder) {
+    this.maxAttempts = builder.maxAttempts;
+    this.initialBackoffMillis = builder.initialBackoffMillis;
+    this.maxBackoffMillis = builder.maxBackoffMillis;
+    this.retryNonIdempotent = builder.retryNonIdempotent;
+    this.budgetDeposit = (long) (builder.budgetRatio * tokenScale);
+    this.budgetMax = builder.maxBudget * tokenScale;
+    this.budget = new AtomicLong(budgetMax);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Returns the number of retries the budget currently allows.
+   */
+  public long getRemainingBudget() {
+    return budget.get() / tokenScale;
+  }
+
+  /**
+   * Called for every first attempt; adds its share to the retry budget.
+   */
+  void onRequest() {
+    long current;
+    do {
+      current = budget.get();
+      if (current >= budgetMax) {
+        return;
+      }
+    } while (!budget.compareAndSet(current, Math.min(current + budgetDeposit, budgetMax)));
+  }
+
+  /**
+   * Takes one retry from the budget, returning false if the budget is spent.
+   */
+  boolean tryAcquireRetry() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < tokenScale) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - tokenScale));
+    return true;
+  }
+
+  /**
+   * Returns whether a response status is worth retrying.
+   */
+  boolean isRetryable(int status, boolean idempotent) {
+    if (!idempotent && !retryNonIdempotent) {
+      return false;
+    }
+    return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+  }
+
+  /**
+   * Returns whether a failure without a response is worth retrying.
+   */
+  boolean isRetryable(Throwable cause, boolean idempotent) {
+    if (cause instanceof RequestRejectedException) {
+      return false;
+    }
+    if (cause instanceof ConnectException) {
+      // nothing was sent
+      return true;
+    }
+    if (!idempotent && !retryNonIdempotent) {
+      return false;
+    }
+    return cause instanceof IOException || cause instanceof TimeoutException;
+  }
+
+  /**
+   * Returns the delay before the given retry, counting from 1.
+   */
+  long backoffMillis(int retry) {
+    long ceiling = initialBackoffMillis << Math.min(retry - 1, 30);
+    if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+      ceiling = maxBackoffMillis;
+    }
+    synchronized (random) {
+      return (long) (random.nextDouble() * ceiling);
+    }
+  }
+
+  /**
+   * Builds a {@link RetryPolicy}.
+   */
+  public static class Builder {
+    private int maxAttempts = 3;
+    private long initialBackoffMillis = 100;
+    private long maxBackoffMillis = 10000;
+    private boolean retryNonIdempotent = false;
+    private double budgetRatio = 0.1;
+    private int maxBudget = 10;
+
+    Builder() {
+    }
+
+    /**
+     * Sets the maximum number of attempts, including the first one. Defaults to 3.
+     */
+    public Builder maxAttempts(int maxAttempts) {
+      if (maxAttempts < 1) {
+        throw new IllegalArgumentException("at least one attempt is required");
+      }
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * Sets the backoff range: the n-th retry waits a random time between 0 and {@code
+     * initialMillis * 2^(n-1)}, but never more than {@code maxMillis}. Defaults to 100 ms and 10
+     * seconds.
+     */
+    public Builder backoff(long initialMillis, long maxMillis) {
+      if (initialMillis < 1 || maxMillis < initialMillis) {
+        throw new IllegalArgumentException("need 1 <= initialMillis <= maxMillis");
+      }
+      this.initialBackoffMillis = initialMillis;
+      this.maxBackoffMillis = maxMillis;
+      return this;
+    }
+
+    /**
+     * Sets the retry budget: every request earns {@code ratio} retries, up to {@code max} saved
+     * retries. Defaults to 0.1 and 10, so in the long run at most 10% of requests are retries.
+     */
+    public Builder budget(double ratio, int max) {
+      if (ratio < 0 || max < 0) {
+        throw new IllegalArgumentException("retry budget must not be negative");
+      }
+      this.budgetRatio = ratio;
+      this.maxBudget = max;
+      return this;
+    }
+
+    /**
+     * Allows retrying requests that create events after a response or a broken connection, at
+     * the risk of storing an event twice. Defaults to false.
+     */
+    public Builder retryNonIdempotent(boolean retryNonIdempotent) {
+      this.retryNonIdempotent = retryNonIdempotent;
+      return this;
+    }
+
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetryingCall sends a request through a client's request queue, consulting the client's {@link
+ * CircuitBreaker} before every attempt and resending it as its {@link RetryPolicy} allows. The
+ * caller sees a single future that completes with the last attempt's outcome.
+ */
+class RetryingCall {
+
+  private final BaseClient owner;
+  private final String endpoint;
+  private final HttpRequest request;
+  private final boolean idempotent;
+  private final RetryPolicy policy;
+  private final CircuitBreaker breaker;
+  private final SettableFuture<APIResponse> result = SettableFuture.create();
+  private volatile FutureAPIResponse current;
+  private int attempts;
+
+  RetryingCall(BaseClient owner, String endpoint, HttpRequest request, boolean idempotent,
+      RetryPolicy policy, CircuitBreaker breaker) {
+    this.owner = owner;
+    this.endpoint = endpoint;
+    this.request = request;
+    this.idempotent = idempotent;
+    this.policy = policy;
+    this.breaker = breaker;
+  }
+
+  /**
+   * Sends the first attempt. Failures to send it are thrown, as they would be without retries.
+   */
+  FutureAPIResponse start() throws IOException {
+    if (policy != null) {
+      policy.onRequest();
+    }
+    send(true, true);
+    return watchResult();
+  }
+
+  /**
+   * Sends the first attempt like {@link #start()}, but only if the request queue admits it without
+   * waiting.
+   *
+   * @param mayQueue whether the attempt may wait in the request queue if no slot is free
+   * @return the response, or null if the request was not admitted
+   */
+  FutureAPIResponse tryStart(boolean mayQueue) throws IOException {
+    if (!send(false, mayQueue)) {
+      return null;
+    }
+    if (policy != null) {
+      policy.onRequest();
+    }
+    return watchResult();
+  }
+
+  private FutureAPIResponse watchResult() {
+    result.addListener(new Runnable() {
+      public void run() {
+        FutureAPIResponse attempt = current;
+        if (result.isCancelled() && attempt != null) {
+          attempt.cancel(true);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+    return new FutureAPIResponse(result);
+  }
+
+  /**
+   * Sends an attempt through the request queue.
+   *
+   * @param wait whether to apply the rejection policy, which may block, if the queue is full
+   * @param mayQueue without {@code wait}, whether the attempt may wait in the queue
+   * @return false if the attempt was neither sent nor queued; only without {@code wait}
+   */
+  private boolean send(boolean wait, boolean mayQueue) throws IOException {
+    if (breaker != null) {
+      breaker.acquire();
+    }
+    final FutureAPIResponse attempt;
+    try {
+      attempt = wait ? owner.submit(endpoint, request)
+          : owner.trySubmit(endpoint, request, mayQueue);
+    } catch (IOException | RuntimeException e) {
+      if (breaker != null) {
+        breaker.onAbandoned();
+      }
+      throw e;
+    }
+    if (attempt == null) {
+      if (breaker != null) {
+        breaker.onAbandoned();
+      }
+      return false;
+    }
+    attempts++;
+    current = attempt;
+    attempt.addListener(new Runnable() {
+      public void run() {
+        complete(attempt);
+      }
+    }, MoreExecutors.directExecutor());
+    return true;
+  }
+
+  private void complete(FutureAPIResponse attempt) {
+    APIResponse response = null;
+    Throwable failure = null;
+    try {
+      response = attempt.get();
+    } catch (CancellationException e) {
+      // nothing was learned about the server, so a trial request must not hold the circuit
+      if (breaker != null) {
+        breaker.onAbandoned();
+      }
+      result.cancel(false);
+      return;
+    } catch (InterruptedException | ExecutionException e) {
+      failure = e.getCause() != null ? e.getCause() : e;
+    }
+
+    if (breaker != null) {
+      if (failure != null || CircuitBreaker.isFailure(response.getStatus())) {
+        breaker.onFailure();
+      } else {
+        breaker.onSuccess();
+      }
+    }
+
+    // retries follow the policy, which also covers statuses the breaker does not count, like 429
+    if (!result.isDone() && shouldRetry(response, failure)) {
+      retryLater();
+    } else if (failure != null) {
+      result.setException(failure);
+    } else {
+      result.set(response);
+    }
+  }
+
+  private boolean shouldRetry(APIResponse response, Throwable failure) {
+    if (policy == null || attempts >= policy.getMaxAttempts()) {
+      return false;
+    }
+    boolean retryable = failure != null ? policy.isRetryable(failure, idempotent)
+        : policy.isRetryable(response.getStatus(), idempotent);
+    return retryable && policy.tryAcquireRetry();
+  }
+
+  private void retryLater() {
+    owner.metrics.onRetry(endpoint);
+    scheduleRetry(new Runnable() {
+      public void run() {
+        if (result.isDone()) {
+          return;
+        }
+        // runs on the scheduler thread, so the retry must not wait for the request queue; if it
+        // is not admitted, it is tried again after another backoff
+        boolean sent;
+        try {
+          sent = send(false, true);
+        } catch (IOException | RuntimeException e) {
+          result.setException(e);
+          return;
+        }
+        if (!sent) {
+          scheduleRetry(this);
+        }
+      }
+    });
+  }
+
+  private void scheduleRetry(Runnable retry) {
+    try {
+      owner.scheduler().schedule(retry, policy.backoffMillis(attempts), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // the client is closed
+      result.setException(new IOException("client closed before the request could be retried"));
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SharedTransport lets several clients send their requests through one {@link Transport}, and so
+ * share its connections and threads, for example an {@link EventClient} and an {@link
+ * EngineClient} talking to the same gateway, or the clients of a {@link PartitionedEventClient}.
+ * Every client gets its own handle from {@link #acquire()}; the transport is closed when the last
+ * handle is closed.
+ *
+ * <pre>
+ * SharedTransport shared = new SharedTransport(new AsyncHttpTransport(64, 2, 5000));
+ * eventClient.setTransport(shared.acquire());
+ * engineClient.setTransport(shared.acquire());
+ * </pre>
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class SharedTransport {
+
+  private final Transport transport;
+
+  // guarded by this
+  private int handles;
+  private boolean closed;
+
+  /**
+   * @param transport the transport to share
+   */
+  public SharedTransport(Transport transport) {
+    if (transport == null) {
+      throw new NullPointerException("transport");
+    }
+    this.transport = transport;
+  }
+
+  /**
+   * Returns a new handle on the transport.
+   *
+   * @throws IllegalStateException if the transport has been closed with its last handle
+   */
+  public synchronized Transport acquire() {
+    if (closed) {
+      throw new IllegalStateException("transport is closed");
+    }
+    handles++;
+    return new Handle();
+  }
+
+  private void release() {
+    synchronized (this) {
+      if (--handles > 0) {
+        return;
+      }
+      closed = true;
+    }
+    transport.close();
+  }
+
+  private class Handle implements Transport {
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    @Override
+    public ListenableFuture<APIResponse> send(HttpRequest request, boolean discardSuccessBody) {
+      if (released.get()) {
+        return Futures.immediateFailedFuture(new IOException("transport handle is closed"));
+      }
+      return transport.send(request, discardSuccessBody);
+    }
+
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        release();
+      }
+    }
+  }
+}
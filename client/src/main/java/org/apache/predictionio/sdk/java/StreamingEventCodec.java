@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * The default {@link EventCodec}. Events are written field by field as UTF-8 into a per-thread
+ * reusable buffer, and read back with Gson's streaming {@link JsonReader}, without reflection and
+ * without building an intermediate JSON tree.
+ *
+ * <p>The produced JSON is equivalent to what Gson with a {@link DateTimeAdapter} produces: unset
+ * optional fields are omitted, {@link DateTime} values are written in ISO 8601 format, and
+ * numeric property values are read back as {@link Double}.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public final class StreamingEventCodec implements EventCodec {
+
+  private static final StreamingEventCodec instance = new StreamingEventCodec();
+
+  private StreamingEventCodec() {
+  }
+
+  /**
+   * Returns the shared instance.
+   */
+  public static StreamingEventCodec getInstance() {
+    return instance;
+  }
+
+  @Override
+  public byte[] encode(Event event) {
+    Utf8JsonWriter writer = Utf8JsonWriter.get();
+    writeEvent(writer, event);
+    return writer.toByteArray();
+  }
+
+  @Override
+  public byte[] encode(List<Event> events) {
+    Utf8JsonWriter writer = Utf8JsonWriter.get();
+    writer.beginArray();
+    for (int i = 0; i < events.size(); i++) {
+      if (i > 0) {
+        writer.comma();
+      }
+      writeEvent(writer, events.get(i));
+    }
+    writer.endArray();
+    return writer.toByteArray();
+  }
+
+  @Override
+  public Event decode(byte[] data, int offset, int length) throws IOException {
+    return decode(new JsonReader(new InputStreamReader(
+        new ByteArrayInputStream(data, offset, length), StandardCharsets.UTF_8)));
+  }
+
+  @Override
+  public Event decode(String json) throws IOException {
+    return decode(new JsonReader(new StringReader(json)));
+  }
+
+  private static Event decode(JsonReader reader) throws IOException {
+    try {
+      return readEvent(reader);
+    } catch (IllegalStateException | NumberFormatException | JsonParseException e) {
+      throw new IOException("malformed event JSON: " + e.getMessage(), e);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Writes an event as a JSON object into {@code writer}.
+   */
+  static void writeEvent(Utf8JsonWriter writer, Event event) {
+    writeEvent(writer, event.getEvent(), event.getEntityType(), event.getEntityId(),
+        event.getTargetEntityType(), event.getTargetEntityId(), event.getProperties(),
+        event.getEventTime());
+  }
+
+  /**
+   * Writes the fields of an event as a JSON object into {@code writer}, without creating an
+   * {@link Event}. Null properties are written as an empty object, as {@link Event} does.
+   */
+  static void writeEvent(Utf8JsonWriter writer, String eventName, String entityType,
+      String entityId, String targetEntityType, String targetEntityId,
+      Map<String, Object> properties, DateTime eventTime) {
+    writer.beginObject();
+    boolean first = true;
+    first = writeField(writer, "event", eventName, first);
+    first = writeField(writer, "entityType", entityType, first);
+    first = writeField(writer, "entityId", entityId, first);
+    first = writeField(writer, "targetEntityType", targetEntityType, first);
+    first = writeField(writer, "targetEntityId", targetEntityId, first);
+    if (!first) {
+      writer.comma();
+    }
+    writer.name("properties");
+    if (properties != null) {
+      writer.writeMap(properties);
+    } else {
+      writer.beginObject();
+      writer.endObject();
+    }
+    if (eventTime != null) {
+      writer.comma();
+      writer.name("eventTime");
+      writer.writeString(eventTime.toString());
+    }
+    writer.endObject();
+  }
+
+  private static boolean writeField(Utf8JsonWriter writer, String name, String value,
+      boolean first) {
+    if (value == null) {
+      return first;
+    }
+    if (!first) {
+      writer.comma();
+    }
+    writer.name(name);
+    writer.writeString(value);
+    return false;
+  }
+
+  /**
+   * Reads the next JSON object from {@code reader} as an event. Fields that are not part of
+   * {@link Event}, such as the {@code eventId} returned by the Event Server, are skipped.
+   */
+  static Event readEvent(JsonReader reader) throws IOException {
+    Event event = new Event();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        continue;
+      }
+      switch (name) {
+        case "event":
+          event.event(reader.nextString());
+          break;
+        case "entityType":
+          event.entityType(reader.nextString());
+          break;
+        case "entityId":
+          event.entityId(reader.nextString());
+          break;
+        case "targetEntityType":
+          event.targetEntityType(reader.nextString());
+          break;
+        case "targetEntityId":
+          event.targetEntityId(reader.nextString());
+          break;
+        case "eventTime":
+          event.eventTime(new DateTime(reader.nextString()));
+          break;
+        case "properties":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            event.property(reader.nextName(), readValue(reader));
+          }
+          reader.endObject();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return event;
+  }
+
+  /**
+   * Reads an arbitrary JSON value into plain Java objects.
+   */
+  static Object readValue(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        return reader.nextDouble();
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return null;
+      case BEGIN_ARRAY:
+        List<Object> list = Lists.newArrayList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          list.add(readValue(reader));
+        }
+        reader.endArray();
+        return list;
+      case BEGIN_OBJECT:
+        Map<String, Object> map = Maps.newLinkedHashMap();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          map.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return map;
+      default:
+        throw new IllegalStateException("unexpected " + reader.peek());
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.Closeable;
+
+/**
+ * Transport sends the HTTP requests of a client. {@link AsyncHttpTransport} is used unless
+ * another transport is set with {@link BaseClient#setTransport(Transport)}; {@link
+ * UrlConnectionTransport} needs nothing beyond the JDK, and {@link InMemoryTransport} answers
+ * requests without a network for tests and benchmarks.
+ *
+ * <p>Clients limit the number of requests in flight themselves, so a transport only needs to be
+ * able to carry {@code threadLimit} concurrent requests.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public interface Transport extends Closeable {
+
+  /**
+   * Sends a request. The returned future completes with the response, whatever its status, or
+   * fails if no response was received; cancelling it should abort the request.
+   *
+   * @param request the request to send
+   * @param discardSuccessBody whether the body of a successful (2xx) response is of no use to
+   *     the caller, so that the transport may drop it as it arrives
+   */
+  ListenableFuture<APIResponse> send(HttpRequest request, boolean discardSuccessBody);
+
+  /**
+   * Releases the connections and threads of this transport. Called when the client is closed.
+   */
+  @Override
+  void close();
+}
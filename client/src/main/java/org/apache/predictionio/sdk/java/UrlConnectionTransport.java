@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * UrlConnectionTransport sends requests with the JDK's {@link HttpURLConnection}, which keeps
+ * idle connections alive for reuse. Each request occupies one of a fixed number of daemon
+ * threads until its response has been read, so the transport needs no IO threads of its own and
+ * nothing beyond the JDK.
+ *
+ * @version 0.13.1
+ * @since 0.13.1
+ */
+public class UrlConnectionTransport implements Transport {
+
+  private final ListeningExecutorService executor;
+  private final int timeoutMillis;
+
+  /**
+   * @param threads number of requests that can be in flight at the same time
+   * @param timeoutMillis timeout in milliseconds for connecting, and for every read of the
+   *     response
+   */
+  public UrlConnectionTransport(int threads, int timeoutMillis) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("at least one thread is required");
+    }
+    this.timeoutMillis = timeoutMillis;
+    this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("predictionio-http-%d")
+            .build()));
+  }
+
+  @Override
+  public ListenableFuture<APIResponse> send(final HttpRequest request,
+      final boolean discardSuccessBody) {
+    return executor.submit(new Callable<APIResponse>() {
+      public APIResponse call() throws IOException {
+        return execute(request, discardSuccessBody);
+      }
+    });
+  }
+
+  private APIResponse execute(HttpRequest request, boolean discardSuccessBody)
+      throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL(request.getUrl()).openConnection();
+    connection.setRequestMethod(request.getMethod());
+    connection.setConnectTimeout(timeoutMillis);
+    connection.setReadTimeout(timeoutMillis);
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      // the connection sets the length itself
+      if (!header.getKey().equalsIgnoreCase("Content-Length")) {
+        connection.setRequestProperty(header.getKey(), header.getValue());
+      }
+    }
+    byte[] body = request.getBody();
+    if (body != null) {
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+    }
+
+    int status = connection.getResponseCode();
+    InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+    if (in == null) {
+      return new APIResponse(status, new byte[0], StandardCharsets.UTF_8);
+    }
+    try {
+      if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+        in = new GZIPInputStream(in);
+      }
+      Charset charset = charset(connection.getContentType());
+      if (discardSuccessBody && status / 100 == 2) {
+        // the body is still read, so that the connection can be reused
+        long received = ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        return new APIResponse(status, null, charset, received);
+      }
+      return new APIResponse(status, ByteStreams.toByteArray(in), charset);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the charset named in a Content-Type header, or UTF-8, the default for JSON.
+   */
+  static Charset charset(String contentType) {
+    if (contentType != null) {
+      for (String param : contentType.split(";")) {
+        param = param.trim();
+        if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+          try {
+            return Charset.forName(param.substring(8).replace("\"", "").trim());
+          } catch (IllegalArgumentException e) {
+            break;
+          }
+        }
+      }
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
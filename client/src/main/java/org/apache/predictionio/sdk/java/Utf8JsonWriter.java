@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.joda.time.DateTime;
+
+/**
+ * Utf8JsonWriter writes JSON directly as UTF-8 into a growable byte array that is reused between
+ * calls on the same thread.
+ *
+ * <p>Strings, numbers, booleans, {@link DateTime}, maps, iterables and arrays are written without
+ * reflection. Any other value falls back to Gson.
+ */
+final class Utf8JsonWriter {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  // buffers that grew beyond this are not kept around for reuse
+  private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+  private static final Gson fallbackGson = new GsonBuilder()
+      .registerTypeAdapter(DateTime.class, new DateTimeAdapter())
+      .create();
+
+  private static final ThreadLocal<Utf8JsonWriter> writers = new ThreadLocal<Utf8JsonWriter>() {
+    @Override
+    protected Utf8JsonWriter initialValue() {
+      return new Utf8JsonWriter();
+    }
+  };
+
+  private byte[] buf = new byte[INITIAL_CAPACITY];
+  private int count;
+  private boolean sortKeys;
+
+  /**
+   * Returns the writer of the current thread, emptied and ready for use.
+   */
+  static Utf8JsonWriter get() {
+    Utf8JsonWriter writer = writers.get();
+    writer.reset();
+    return writer;
+  }
+
+  void reset() {
+    count = 0;
+    sortKeys = false;
+    if (buf.length > MAX_RETAINED_CAPACITY) {
+      buf = new byte[INITIAL_CAPACITY];
+    }
+  }
+
+  /**
+   * Makes maps write their entries in key order, so that equal maps produce identical output
+   * regardless of their iteration order. Cleared by {@link #reset()}.
+   */
+  void sortKeys() {
+    sortKeys = true;
+  }
+
+  int size() {
+    return count;
+  }
+
+  /**
+   * Returns the internal buffer. Only the first {@link #size()} bytes are valid.
+   */
+  byte[] buffer() {
+    return buf;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(buf, count);
+  }
+
+  /**
+   * Copies as many written bytes as fit into {@code target}, starting at {@code from}.
+   *
+   * @return number of bytes copied
+   */
+  int copyTo(int from, ByteBuffer target) {
+    int n = Math.min(count - from, target.remaining());
+    target.put(buf, from, n);
+    return n;
+  }
+
+  void writeByte(int b) {
+    ensureCapacity(1);
+    buf[count++] = (byte) b;
+  }
+
+  void writeBytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buf, count, bytes.length);
+    count += bytes.length;
+  }
+
+  void beginObject() {
+    writeByte('{');
+  }
+
+  void endObject() {
+    writeByte('}');
+  }
+
+  void beginArray() {
+    writeByte('[');
+  }
+
+  void endArray() {
+    writeByte(']');
+  }
+
+  void comma() {
+    writeByte(',');
+  }
+
+  /**
+   * Writes {@code "name":}.
+   */
+  void name(String name) {
+    writeString(name);
+    writeByte(':');
+  }
+
+  /**
+   * Writes a quoted and escaped JSON string.
+   */
+  void writeString(String s) {
+    int len = s.length();
+    // sized for the common ASCII case, longer encodings grow the buffer as they go
+    ensureCapacity(len + 2);
+    buf[count++] = '"';
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+          ensureCapacity(1);
+          buf[count++] = (byte) c;
+        } else {
+          writeEscaped(c);
+        }
+      } else if (c < 0x800) {
+        ensureCapacity(2);
+        buf[count++] = (byte) (0xc0 | (c >> 6));
+        buf[count++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        ensureCapacity(4);
+        buf[count++] = (byte) (0xf0 | (cp >> 18));
+        buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        buf[count++] = (byte) (0x80 | (cp & 0x3f));
+      } else if (Character.isSurrogate(c) || c == '\u2028' || c == '\u2029') {
+        // lone surrogates cannot be encoded as UTF-8, and the line separators break JavaScript
+        writeEscaped(c);
+      } else {
+        ensureCapacity(3);
+        buf[count++] = (byte) (0xe0 | (c >> 12));
+        buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buf[count++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    ensureCapacity(1);
+    buf[count++] = '"';
+  }
+
+  private void writeEscaped(char c) {
+    ensureCapacity(6);
+    buf[count++] = '\\';
+    switch (c) {
+      case '"':
+        buf[count++] = '"';
+        break;
+      case '\\':
+        buf[count++] = '\\';
+        break;
+      case '\n':
+        buf[count++] = 'n';
+        break;
+      case '\r':
+        buf[count++] = 'r';
+        break;
+      case '\t':
+        buf[count++] = 't';
+        break;
+      case '\b':
+        buf[count++] = 'b';
+        break;
+      case '\f':
+        buf[count++] = 'f';
+        break;
+      default:
+        buf[count++] = 'u';
+        buf[count++] = HEX[(c >> 12) & 0xf];
+        buf[count++] = HEX[(c >> 8) & 0xf];
+        buf[count++] = HEX[(c >> 4) & 0xf];
+        buf[count++] = HEX[c & 0xf];
+    }
+  }
+
+  /**
+   * Writes an arbitrary value. Null entries of maps are omitted, as Gson does by default.
+   */
+  void writeValue(Object value) {
+    if (value == null) {
+      writeBytes(NULL);
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Number) {
+      writeNumber((Number) value);
+    } else if (value instanceof Boolean) {
+      writeBytes((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof DateTime) {
+      writeString(value.toString());
+    } else if (value instanceof Map) {
+      writeMap((Map<?, ?>) value);
+    } else if (value instanceof Iterable) {
+      beginArray();
+      boolean first = true;
+      for (Object element : (Iterable<?>) value) {
+        if (!first) {
+          comma();
+        }
+        writeValue(element);
+        first = false;
+      }
+      endArray();
+    } else if (value.getClass().isArray()) {
+      beginArray();
+      int length = Array.getLength(value);
+      for (int i = 0; i < length; i++) {
+        if (i > 0) {
+          comma();
+        }
+        writeValue(Array.get(value, i));
+      }
+      endArray();
+    } else if (value instanceof Character) {
+      writeString(value.toString());
+    } else if (value instanceof Enum) {
+      writeString(((Enum<?>) value).name());
+    } else if (value instanceof JsonElement) {
+      writeAscii(value.toString());
+    } else {
+      writeAscii(fallbackGson.toJson(value));
+    }
+  }
+
+  void writeMap(Map<?, ?> map) {
+    if (sortKeys && !(map instanceof SortedMap)) {
+      SortedMap<String, Object> sorted = new TreeMap<>();
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+      }
+      map = sorted;
+    }
+    beginObject();
+    boolean first = true;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      if (entry.getValue() == null) {
+        continue;
+      }
+      if (!first) {
+        comma();
+      }
+      name(String.valueOf(entry.getKey()));
+      writeValue(entry.getValue());
+      first = false;
+    }
+    endObject();
+  }
+
+  private void writeNumber(Number n) {
+    if (n instanceof Double || n instanceof Float) {
+      double d = n.doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) {
+        throw new IllegalArgumentException("JSON forbids NaN and infinities: " + n);
+      }
+    }
+    writeAscii(n.toString());
+  }
+
+  /**
+   * Writes already valid JSON text. Gson output is ASCII except for non-ASCII string content,
+   * which is handled by falling back to a full UTF-8 encode.
+   */
+  private void writeAscii(String s) {
+    int len = s.length();
+    ensureCapacity(len);
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        count -= i;
+        writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      buf[count++] = (byte) c;
+    }
+  }
+
+  private void ensureCapacity(int extra) {
+    if (count + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class BatchResultTest {
+
+  @Test
+  public void parsesMixedResults() throws IOException {
+    BatchResult result = BatchResult.parse("[{\"status\":201,\"eventId\":\"e1\"},"
+        + "{\"status\":400,\"message\":\"bad \\\"event\\\"\",\"extra\":[1,2]},"
+        + "{\"status\":201,\"eventId\":\"e3\",\"message\":null}]");
+
+    assertEquals(3, result.size());
+    assertEquals(2, result.getCreatedCount());
+    assertTrue(result.isCreated(0));
+    assertFalse(result.isCreated(1));
+    assertEquals(400, result.getStatus(1));
+    assertEquals("bad \"event\"", result.getMessage(1));
+    assertNull(result.getMessage(2));
+    assertEquals(Arrays.asList("e1", null, "e3"), result.getEventIds());
+
+    JsonObject json = (JsonObject) new JsonParser().parse(result.toJson(1));
+    assertEquals(400, json.get("status").getAsInt());
+    assertEquals("bad \"event\"", json.get("message").getAsString());
+    assertFalse(json.has("eventId"));
+  }
+
+  @Test
+  public void growsPastExpectedSize() throws IOException {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 5; i++) {
+      json.append(i > 0 ? "," : "")
+          .append("{\"status\":201,\"eventId\":\"e").append(i).append("\"}");
+    }
+    BatchResult result = BatchResult.parse(new StringReader(json.append("]").toString()), 2);
+    assertEquals(5, result.size());
+    assertEquals("e4", result.getEventId(4));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsNonArray() throws IOException {
+    BatchResult.parse("{\"message\":\"error\"}");
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class BulkImporterTest {
+
+  private static final BulkImporter.EventMapper<Integer> mapper =
+      new BulkImporter.EventMapper<Integer>() {
+        public List<Event> map(Integer record) {
+          return Collections.singletonList(
+              new Event().event("view").entityType("user").entityId("u" + record));
+        }
+      };
+
+  @Test
+  public void testRecordsAreReadOnlyAsBatchesComplete() throws Exception {
+    final HeldTransport transport = new HeldTransport();
+    EventClient client = new EventClient("key", "http://localhost:8089", 8);
+    client.setTransport(transport);
+    final BulkImporter<Integer> importer = new BulkImporter<>(client, mapper, 2, 10);
+
+    final AtomicInteger read = new AtomicInteger();
+    final Iterator<Integer> records = new Iterator<Integer>() {
+      public boolean hasNext() {
+        return read.get() < 1000;
+      }
+
+      public Integer next() {
+        return read.getAndIncrement();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    Thread thread = new Thread() {
+      public void run() {
+        try {
+          importer.run(records);
+        } catch (InterruptedException e) {
+          // ends the test with a wrong count
+        }
+      }
+    };
+    thread.start();
+
+    int acknowledged = 0;
+    while (acknowledged < 1000) {
+      SettableFuture<APIResponse> response = transport.pending.poll(5, TimeUnit.SECONDS);
+      // two batches in flight and one waiting to be sent, whatever the input size
+      Thread.sleep(5);
+      assertTrue(transport.pending.size() <= 1);
+      assertTrue(read.get() - acknowledged <= 30);
+      response.set(new APIResponse(200, createdEntries(10)));
+      acknowledged += 10;
+    }
+    thread.join(5000);
+    assertFalse(thread.isAlive());
+    assertEquals(1000, importer.getImportedCount());
+    assertEquals(0, importer.getFailedCount());
+    client.close();
+  }
+
+  @Test
+  public void testEventsAreSentInInputOrder() throws Exception {
+    final List<String> sent = new ArrayList<>();
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    InMemoryTransport transport = new InMemoryTransport(new InMemoryTransport.Handler() {
+      public APIResponse handle(HttpRequest request) {
+        int count = 0;
+        for (JsonElement event : new JsonParser().parse(
+            new String(request.getBody(), StandardCharsets.UTF_8)).getAsJsonArray()) {
+          sent.add(event.getAsJsonObject().get("entityId").getAsString());
+          count++;
+        }
+        return new APIResponse(200, createdEntries(count));
+      }
+    });
+    client.setTransport(transport);
+
+    BulkImporter<Integer> importer = new BulkImporter<>(client, mapper, 1, 7);
+    List<String> expected = new ArrayList<>();
+    List<Integer> records = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      records.add(i);
+      expected.add("u" + i);
+    }
+    importer.run(records.iterator());
+    client.close();
+
+    assertEquals(expected, sent);
+    assertEquals(3, transport.getRequestCount());
+    assertEquals(20, importer.getImportedCount());
+  }
+
+  @Test
+  public void testFailuresAreReportedPerEvent() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.setTransport(new InMemoryTransport(new InMemoryTransport.Handler() {
+      public APIResponse handle(HttpRequest request) throws IOException {
+        switch (requests.getAndIncrement()) {
+          case 0:
+            return new APIResponse(200,
+                "[{\"status\":201,\"eventId\":\"a\"},{\"status\":400,\"message\":\"bad\"}]");
+          case 1:
+            throw new IOException("down");
+          default:
+            return new APIResponse(500, "{\"message\":\"error\"}");
+        }
+      }
+    }));
+
+    final List<String> failures = new ArrayList<>();
+    final AtomicInteger progressReports = new AtomicInteger();
+    BulkImporter<Integer> importer = new BulkImporter<>(client, mapper, 1, 2);
+    importer.setProgressListener(new BulkImporter.ProgressListener() {
+      public void onProgress(long importedCount, long failedCount, long elapsedNanos) {
+        progressReports.incrementAndGet();
+      }
+
+      public void onFailure(Event event, int status, String message) {
+        failures.add(event.getEntityId() + " " + status + " " + message);
+      }
+    });
+    importer.run(Arrays.asList(0, 1, 2, 3, 4, 5).iterator());
+    client.close();
+
+    assertEquals(Arrays.asList("u1 400 bad", "u2 0 down", "u3 0 down",
+        "u4 500 {\"message\":\"error\"}", "u5 500 {\"message\":\"error\"}"), failures);
+    assertEquals(1, importer.getImportedCount());
+    assertEquals(5, importer.getFailedCount());
+    assertEquals(3, progressReports.get());
+  }
+
+  private static String createdEntries(int count) {
+    StringBuilder body = new StringBuilder("[");
+    for (int i = 0; i < count; i++) {
+      body.append(i > 0 ? "," : "").append("{\"status\":201,\"eventId\":\"e").append(i)
+          .append("\"}");
+    }
+    return body.append("]").toString();
+  }
+
+  /**
+   * Holds every request until the test completes its response.
+   */
+  private static class HeldTransport implements Transport {
+    final LinkedBlockingQueue<SettableFuture<APIResponse>> pending =
+        new LinkedBlockingQueue<>();
+
+    @Override
+    public ListenableFuture<APIResponse> send(HttpRequest request, boolean discardSuccessBody) {
+      SettableFuture<APIResponse> response = SettableFuture.create();
+      pending.add(response);
+      return response;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
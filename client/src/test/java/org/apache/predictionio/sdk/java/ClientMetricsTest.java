@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ClientMetricsTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testDiscardedBodiesAreStillCounted() throws Exception {
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(201)
+            .withBody("{\"eventId\":\"a\"}")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.setDiscardResponseBodies(true);
+    Event event = new Event().event("view").entityType("user").entityId("u1");
+    FutureAPIResponse response = client.createEventAsFuture(event);
+
+    assertEquals(201, response.getStatus());
+    assertEquals("", response.getMessage());
+    assertNull(client.createEvent(response));
+    assertEquals("{\"eventId\":\"a\"}".length(),
+        client.getMetrics().getEndpoint("/events.json").getBytesReceived());
+
+    client.setDiscardResponseBodies(false);
+    assertEquals("a", client.createEvent(event));
+    client.close();
+  }
+
+  @Test
+  public void testEndpointMetrics() throws Exception {
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(201)
+            .withBody("{\"eventId\":\"a\"}")));
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(400)
+            .withBody("{\"message\":\"bad\"}")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    final AtomicInteger listened = new AtomicInteger();
+    client.addMetricsListener(new MetricsListener() {
+      public void onResponse(String endpoint, int status, long latencyNanos, long bytesSent,
+          long bytesReceived) {
+        listened.incrementAndGet();
+      }
+
+      public void onFailure(String endpoint, Throwable cause, long latencyNanos) {
+      }
+    });
+    client.getMetrics().registerMBeans("metrics-test");
+
+    Event event = new Event().event("view").entityType("user").entityId("u1");
+    client.createEvent(event);
+    client.createEvent(event);
+    client.createEventsAsFuture(Collections.singletonList(event)).get();
+
+    EndpointMetrics events = client.getMetrics().getEndpoint("/events.json");
+    assertEquals(2, events.getRequestCount());
+    assertEquals(0, events.getErrorCount());
+    assertEquals(0, events.getInFlightCount());
+    assertEquals(2 * "{\"eventId\":\"a\"}".length(), events.getBytesReceived());
+    assertTrue(events.getBytesSent() > 0);
+
+    EndpointMetrics batch = client.getMetrics().getEndpoint("/batch/events.json");
+    assertEquals(1, batch.getErrorCount());
+    assertEquals(Long.valueOf(1), batch.getErrorCountsByStatus().get(400));
+    assertEquals(3, listened.get());
+
+    ObjectName name = new ObjectName("org.apache.predictionio.sdk.java:type=EndpointMetrics,"
+        + "client=\"metrics-test\",endpoint=\"/events.json\"");
+    assertEquals(2L, ManagementFactory.getPlatformMBeanServer()
+        .getAttribute(name, "RequestCount"));
+    client.close();
+    assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  @Test
+  public void testLatencyPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500, histogram.getPercentileMillis(0.5), 500 * 0.125);
+    assertEquals(990, histogram.getPercentileMillis(0.99), 990 * 0.125);
+    assertEquals(1000, histogram.getMaxMillis(), 0.001);
+  }
+}
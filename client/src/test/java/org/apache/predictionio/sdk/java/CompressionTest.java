@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CompressionTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testLargeBatchIsCompressed() throws Exception {
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .withHeader("Content-Encoding", equalTo("gzip"))
+        .willReturn(aResponse().withStatus(200).withBody("[]")));
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse().withStatus(201).withBody("{\"eventId\":\"a\"}")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.setCompression(1024, 6);
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      events.add(new Event().event("view").entityType("user").entityId("u" + i)
+          .targetEntityType("item").targetEntityId("i" + i));
+    }
+    assertEquals(200, client.createEventsAsFuture(events).get().getStatus());
+    assertEquals("a", client.createEvent(events.get(0)));
+    client.close();
+
+    verify(1, postRequestedFor(urlMatching("/batch/events.json.*"))
+        .withHeader("Accept-Encoding", equalTo("gzip")));
+    // a single event is below the threshold
+    assertFalse(findAll(postRequestedFor(urlMatching("/events.json.*"))).get(0)
+        .containsHeader("Content-Encoding"));
+  }
+
+  @Test
+  public void testCompressedResponseIsDecompressed() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(body)) {
+      gzip.write("{\"itemScores\":[{\"item\":\"i1\",\"score\":1.0}]}"
+          .getBytes(StandardCharsets.UTF_8));
+    }
+    stubFor(post(urlEqualTo("/queries.json"))
+        .withHeader("Accept-Encoding", equalTo("gzip"))
+        .willReturn(aResponse().withStatus(200)
+            .withHeader("Content-Encoding", "gzip")
+            .withBody(body.toByteArray())));
+
+    EngineClient client = new EngineClient("http://localhost:8089");
+    client.setCompression(1024, 6);
+    assertEquals("i1", client.sendQuery(Collections.<String, Object>singletonMap("user", "u1"))
+        .getAsJsonArray("itemScores").get(0).getAsJsonObject().get("item").getAsString());
+    client.close();
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.findAll;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.JsonObject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class EngineClientTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  private Map<String, Object> query(boolean reversed) {
+    Map<String, Object> query = new LinkedHashMap<>();
+    if (reversed) {
+      query.put("num", 4);
+      query.put("user", "u1");
+    } else {
+      query.put("user", "u1");
+      query.put("num", 4);
+    }
+    return query;
+  }
+
+  @Test
+  public void testSendQueryAsync() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .inScenario("async").whenScenarioStateIs(STARTED).willSetStateTo("failing")
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+    stubFor(post(urlEqualTo("/queries.json"))
+        .inScenario("async").whenScenarioStateIs("failing")
+        .willReturn(aResponse().withStatus(500).withBody("{\"message\":\"down\"}")));
+
+    EngineClient client = new EngineClient("http://localhost:8089");
+    final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    client.setCallbackExecutor(new Executor() {
+      public void execute(Runnable command) {
+        threads.add(Thread.currentThread().getName());
+        command.run();
+      }
+    });
+
+    JsonObject result = client.sendQueryAsync(query(false)).get(5, TimeUnit.SECONDS);
+    assertTrue(result.getAsJsonArray("itemScores").size() == 0);
+    assertEquals(1, threads.size());
+
+    client.setCallbackExecutor(executor);
+    try {
+      client.sendQueryAsync(query(false)).get(5, TimeUnit.SECONDS);
+      fail("expected an APIException");
+    } catch (ExecutionException e) {
+      APIException cause = (APIException) e.getCause();
+      assertEquals(500, cause.getStatus());
+      assertEquals("{\"message\":\"down\"}", cause.getResponseMessage());
+    }
+    executor.shutdown();
+    client.close();
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")
+            .withFixedDelay(500)));
+
+    EngineClient client = new EngineClient("http://localhost:8089", 4);
+    client.setCoalesceQueries(true);
+
+    FutureAPIResponse first = client.sendQueryAsFuture(query(false));
+    FutureAPIResponse second = client.sendQueryAsFuture(query(true));
+    assertEquals(200, first.get().getStatus());
+    assertEquals(200, second.get().getStatus());
+
+    // no longer in flight, so this one is sent again
+    client.sendQuery(query(false));
+    client.close();
+
+    verify(2, postRequestedFor(urlEqualTo("/queries.json")));
+  }
+
+  @Test
+  public void testCoalescedCallersCancelIndependently() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")
+            .withFixedDelay(500)));
+
+    EngineClient client = new EngineClient("http://localhost:8089", 4);
+    client.setCoalesceQueries(true);
+
+    FutureAPIResponse first = client.sendQueryAsFuture(query(false));
+    FutureAPIResponse second = client.sendQueryAsFuture(query(false));
+    assertTrue(first.cancel(true));
+    FutureAPIResponse third = client.sendQueryAsFuture(query(false));
+    assertEquals(200, second.get().getStatus());
+    assertEquals(200, third.get().getStatus());
+    // each caller gets its own copy of the shared response
+    assertNotSame(second.get(), third.get());
+    verify(1, postRequestedFor(urlEqualTo("/queries.json")));
+
+    // once every caller has cancelled, an identical query starts over
+    FutureAPIResponse abandoned = client.sendQueryAsFuture(query(false));
+    assertTrue(abandoned.cancel(true));
+    FutureAPIResponse fresh = client.sendQueryAsFuture(query(false));
+    assertFalse(fresh.isCancelled());
+    assertEquals(200, fresh.get().getStatus());
+    client.close();
+  }
+
+  @Test
+  public void testHedgedQueryReturnsFasterCopy() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("pause")
+        .whenScenarioStateIs(STARTED)
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[\"slow\"]}")
+            .withFixedDelay(3000))
+        .willSetStateTo("resumed"));
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("pause")
+        .whenScenarioStateIs("resumed")
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[\"fast\"]}")));
+
+    EngineClient client = new EngineClient("http://localhost:8089", 2);
+    client.enableHedging(0.95, 50, 1.0);
+
+    long start = System.nanoTime();
+    assertEquals("fast", client.sendQuery(query(false))
+        .getAsJsonArray("itemScores").get(0).getAsString());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    assertEquals(1, client.getHedgeCount());
+    client.close();
+  }
+
+  @Test
+  public void testHedgeIsSkippedWithoutBlockingTheScheduler() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")
+            .withFixedDelay(2000)));
+
+    // the only connection is taken by the query itself when the hedge is due
+    EngineClient client = new EngineClient("http://localhost:8089", 1);
+    client.enableHedging(0.95, 50, 1.0);
+    FutureAPIResponse response = client.sendQueryAsFuture(query(false));
+    Thread.sleep(200);
+
+    Future<?> timer = client.scheduler().submit(new Runnable() {
+      public void run() {
+      }
+    });
+    timer.get(500, TimeUnit.MILLISECONDS);
+    assertFalse(response.isDone());
+    assertEquals(0, client.getHedgeCount());
+    assertEquals(200, response.get().getStatus());
+    client.close();
+  }
+
+  @Test
+  public void testAffinityKeepsUserOnOneReplica() throws Exception {
+    stubFor(post(urlMatching("/(a|b)/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+
+    EngineClient client = new EngineClient(
+        Arrays.asList("http://localhost:8089/a", "http://localhost:8089/b"), 1, 0, 5);
+    client.setAffinityKey("user");
+    for (int i = 0; i < 6; i++) {
+      client.sendQuery(query(i % 2 == 0));
+    }
+    client.close();
+
+    List<LoggedRequest> toA = findAll(postRequestedFor(urlEqualTo("/a/queries.json")));
+    List<LoggedRequest> toB = findAll(postRequestedFor(urlEqualTo("/b/queries.json")));
+    assertTrue(toA.size() == 6 && toB.isEmpty() || toA.isEmpty() && toB.size() == 6);
+  }
+
+  @Test
+  public void testFailingReplicaIsEjected() throws Exception {
+    stubFor(post(urlEqualTo("/a/queries.json"))
+        .willReturn(aResponse().withStatus(500)));
+    stubFor(post(urlEqualTo("/b/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+
+    EngineClient client = new EngineClient(
+        Arrays.asList("http://localhost:8089/a", "http://localhost:8089/b"), 1, 0, 5);
+    client.setLoadBalancing(LoadBalancing.LEAST_OUTSTANDING);
+    client.setEjection(1, 3, 60000);
+    for (int i = 0; i < 6; i++) {
+      client.sendQueryAsFuture(query(false)).get();
+    }
+
+    assertEquals(Collections.singletonList("http://localhost:8089/b"),
+        client.getHealthyEngineUrls());
+    verify(1, postRequestedFor(urlEqualTo("/a/queries.json")));
+    verify(5, postRequestedFor(urlEqualTo("/b/queries.json")));
+    client.close();
+  }
+
+  @Test
+  public void testHealthChecksRunWhileTheClientIsSaturated() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")
+            .withFixedDelay(2000)));
+    stubFor(get(urlEqualTo("/"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"status\":\"alive\"}")));
+
+    // the only request slot is taken by a slow query
+    EngineClient client = new EngineClient("http://localhost:8089", 1);
+    FutureAPIResponse response = client.sendQueryAsFuture(query(false));
+    client.enableHealthChecks(50);
+    Thread.sleep(300);
+
+    client.scheduler().submit(new Runnable() {
+      public void run() {
+      }
+    }).get(500, TimeUnit.MILLISECONDS);
+    assertFalse(response.isDone());
+    assertTrue(findAll(getRequestedFor(urlEqualTo("/"))).size() > 0);
+    assertEquals(Collections.singletonList("http://localhost:8089"),
+        client.getHealthyEngineUrls());
+    assertEquals(200, response.get().getStatus());
+    client.close();
+  }
+
+  @Test
+  public void testPrewarmOpensUpToThreadLimitConnectionsPerReplica() throws Exception {
+    final ServerSocket server = new ServerSocket(0);
+    final AtomicInteger connections = new AtomicInteger();
+    Thread acceptor = new Thread() {
+      public void run() {
+        while (true) {
+          final Socket socket;
+          try {
+            socket = server.accept();
+          } catch (IOException e) {
+            return;
+          }
+          connections.incrementAndGet();
+          Thread handler = new Thread() {
+            public void run() {
+              serveSlowly(socket);
+            }
+          };
+          handler.setDaemon(true);
+          handler.start();
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    // two servers as far as the connection pool is concerned, with no request queue
+    int port = server.getLocalPort();
+    EngineClient client = new EngineClient(
+        Arrays.asList("http://localhost:" + port, "http://127.0.0.1:" + port), 2, 0, 5);
+    long start = System.nanoTime();
+    ListenableFuture<Integer> warm = client.prewarm(10);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(300));
+    assertEquals(4, (int) warm.get(5, TimeUnit.SECONDS));
+    assertEquals(4, connections.get());
+
+    // the pooled connections are reused
+    assertEquals(4, client.prewarm(10, 5000));
+    assertEquals(4, connections.get());
+    client.close();
+    server.close();
+  }
+
+  /**
+   * Answers every request on a connection with a status response, after a delay that keeps
+   * concurrent requests from sharing connections.
+   */
+  private static void serveSlowly(Socket socket) {
+    try {
+      BufferedReader in = new BufferedReader(new InputStreamReader(
+          socket.getInputStream(), StandardCharsets.US_ASCII));
+      OutputStream out = socket.getOutputStream();
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (!line.isEmpty()) {
+          continue;
+        }
+        Thread.sleep(500);
+        String response = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n"
+            + "Content-Length: 18\r\n\r\n{\"status\":\"alive\"}";
+        out.write(response.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+      }
+    } catch (IOException | InterruptedException e) {
+      // connection closed
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class EventBatcherTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testBatchedEventsGetTheirOwnResponses() throws Exception {
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withBody("[{\"status\":201,\"eventId\":\"a\"},"
+                + "{\"status\":400,\"message\":\"bad event\"},"
+                + "{\"status\":201,\"eventId\":\"c\"}]")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.enableBatching(3, 10000);
+
+    FutureAPIResponse first = client.createEventAsFuture(new Event()
+        .event("view").entityType("user").entityId("u1"));
+    FutureAPIResponse second = client.createEventAsFuture(new Event()
+        .event("view").entityType("user").entityId("u2"));
+    FutureAPIResponse third = client.createEventAsFuture(new Event()
+        .event("view").entityType("user").entityId("u3"));
+
+    assertEquals("a", client.createEvent(first));
+    assertEquals(400, second.get().getStatus());
+    assertEquals("c", client.createEvent(third));
+    client.close();
+
+    verify(1, postRequestedFor(urlMatching("/batch/events.json.*")));
+  }
+
+  @Test
+  public void testLingerTimeSendsPartialBatch() throws Exception {
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withBody("[{\"status\":201,\"eventId\":\"a\"}]")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.enableBatching(50, 50);
+
+    FutureAPIResponse response = client.createEventAsFuture(new Event()
+        .event("view").entityType("user").entityId("u1"));
+
+    assertEquals("a", client.createEvent(response));
+    client.close();
+  }
+
+  @Test
+  public void testLingerDoesNotBlockTheSchedulerWhenTheQueueIsFull() throws Exception {
+    final SettableFuture<APIResponse> held = SettableFuture.create();
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.setTransport(new Transport() {
+      private boolean first = true;
+
+      public synchronized ListenableFuture<APIResponse> send(HttpRequest request,
+          boolean discardSuccessBody) {
+        if (first) {
+          first = false;
+          return held;
+        }
+        return Futures.immediateFuture(
+            new APIResponse(200, "[{\"status\":201,\"eventId\":\"a\"}]"));
+      }
+
+      public void close() {
+      }
+    });
+    client.enableBatching(50, 50);
+
+    // takes the only connection
+    FutureAPIResponse other = client.createEventsAsFuture(Collections.singletonList(
+        new Event().event("view").entityType("user").entityId("u0")));
+    FutureAPIResponse response = client.createEventAsFuture(new Event()
+        .event("view").entityType("user").entityId("u1"));
+    Thread.sleep(200);
+
+    client.scheduler().submit(new Runnable() {
+      public void run() {
+      }
+    }).get(500, TimeUnit.MILLISECONDS);
+    assertFalse(response.isDone());
+
+    held.set(new APIResponse(200, "[{\"status\":201,\"eventId\":\"a\"}]"));
+    assertEquals(200, other.get().getStatus());
+    assertEquals("a", client.createEvent(response));
+    client.close();
+  }
+
+  @Test
+  public void testEventsAddedAfterCloseAreRejected() throws Exception {
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.enableBatching(50, 50);
+    client.close();
+
+    try {
+      client.createEventAsFuture(new Event().event("view").entityType("user").entityId("u1"));
+      fail("expected the closed client to reject the event");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventFileReaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testChunksAreDecodedInParallel() throws IOException {
+    String pathname = folder.getRoot().getCanonicalPath() + "/events.json";
+    FileExporter exporter = new FileExporter(pathname, 4096, FileExporter.SyncPolicy.NEVER);
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      exporter.createEvent("view", "user", "u" + i, "item", "i" + (i % 7), null, null);
+      expected.add("u" + i);
+    }
+    exporter.close();
+    try (FileOutputStream out = new FileOutputStream(pathname, true)) {
+      out.write("\r\n\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // chunks of a few lines each, so that most chunk ends fall inside a line
+    final List<String> ids = new ArrayList<>();
+    EventFileReader.EventHandler handler = new EventFileReader.EventHandler() {
+      public void onEvent(Event event) {
+        ids.add(event.getEntityId());
+      }
+    };
+    try (EventFileReader reader = new EventFileReader(pathname, 4, 500, true)) {
+      assertEquals(1000, reader.read(handler));
+    }
+    assertEquals(expected, ids);
+
+    ids.clear();
+    try (EventFileReader reader = new EventFileReader(pathname, 4, 500, false)) {
+      assertEquals(1000, reader.read(handler));
+    }
+    Collections.sort(ids);
+    Collections.sort(expected);
+    assertEquals(expected, ids);
+  }
+
+  @Test
+  public void testDeliveredChunksAreNotRetained() throws IOException {
+    String pathname = folder.getRoot().getCanonicalPath() + "/events.json";
+    FileExporter exporter = new FileExporter(pathname, 4096, FileExporter.SyncPolicy.NEVER);
+    for (int i = 0; i < 200; i++) {
+      exporter.createEvent("view", "user", "u" + i, "item", "i" + (i % 7), null, null);
+    }
+    exporter.close();
+
+    // remembers every decoded event without keeping it reachable
+    final List<WeakReference<Event>> decoded =
+        Collections.synchronizedList(new ArrayList<WeakReference<Event>>());
+    final EventCodec codec = StreamingEventCodec.getInstance();
+    final int[] reachable = new int[1];
+    // one line per chunk, and at most two chunks decoded ahead of the handler
+    try (EventFileReader reader = new EventFileReader(pathname, 1, 1, true)) {
+      reader.setCodec(new EventCodec() {
+        public byte[] encode(Event event) {
+          return codec.encode(event);
+        }
+
+        public byte[] encode(List<Event> events) {
+          return codec.encode(events);
+        }
+
+        public Event decode(byte[] data, int offset, int length) throws IOException {
+          Event event = codec.decode(data, offset, length);
+          decoded.add(new WeakReference<>(event));
+          return event;
+        }
+
+        public Event decode(String json) throws IOException {
+          return codec.decode(json);
+        }
+      });
+      assertEquals(200, reader.read(new EventFileReader.EventHandler() {
+        private int count;
+
+        public void onEvent(Event event) {
+          if (++count == 150) {
+            System.gc();
+            synchronized (decoded) {
+              for (WeakReference<Event> ref : decoded) {
+                if (ref.get() != null) {
+                  reachable[0]++;
+                }
+              }
+            }
+          }
+        }
+      }));
+    }
+    // the current chunk and the ones decoded ahead, not the 150 delivered so far
+    assertTrue("reachable: " + reachable[0], reachable[0] <= 4);
+  }
+
+  @Test
+  public void testMalformedLine() throws IOException {
+    String pathname = folder.getRoot().getCanonicalPath() + "/malformed.json";
+    try (FileOutputStream out = new FileOutputStream(pathname)) {
+      out.write("{\"event\":\"view\"}\n{\"event\":\n".getBytes(StandardCharsets.UTF_8));
+    }
+    try (EventFileReader reader = new EventFileReader(pathname)) {
+      reader.read(new EventFileReader.EventHandler() {
+        public void onEvent(Event event) {
+        }
+      });
+      fail("malformed line accepted");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("malformed event at byte 17"));
+    }
+  }
+}
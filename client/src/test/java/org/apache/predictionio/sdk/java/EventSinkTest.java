@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class EventSinkTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testDemandFollowsAcknowledgements() throws Exception {
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withBody("[{\"status\":201,\"eventId\":\"a\"},"
+                + "{\"status\":400,\"message\":\"bad event\"}]")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    final List<String> acks = Collections.synchronizedList(new ArrayList<String>());
+    EventSink sink = new EventSink(client, new EventSink.AckListener() {
+      public void onCreated(Event event, String eventId) {
+        acks.add(event.getEntityId() + "=" + eventId);
+      }
+
+      public void onFailure(Event event, int status, String message) {
+        acks.add(event.getEntityId() + "=" + status);
+      }
+    }, 1, 2, 10000);
+
+    final AtomicLong demand = new AtomicLong();
+    sink.onSubscribe(new EventSink.Subscription() {
+      public void request(long n) {
+        demand.addAndGet(n);
+      }
+
+      public void cancel() {
+      }
+    });
+    assertEquals(2, demand.get());
+
+    sink.onNext(event("u1"));
+    sink.onNext(event("u2"));
+    demand.addAndGet(-2);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (demand.get() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, demand.get());
+
+    sink.onNext(event("u3"));
+    sink.onComplete();
+    sink.getCompletion().get(5, TimeUnit.SECONDS);
+    client.close();
+
+    assertEquals(Arrays.asList("u1=a", "u2=400", "u3=a"), acks);
+    verify(2, postRequestedFor(urlMatching("/batch/events.json.*")));
+  }
+
+  @Test
+  public void testLingeringBatchesWaitForAFreeRequestSlot() throws Exception {
+    StringBuilder body = new StringBuilder("[");
+    for (int i = 0; i < 10; i++) {
+      body.append(i > 0 ? "," : "").append("{\"status\":201,\"eventId\":\"a\"}");
+    }
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withFixedDelay(1000)
+            .withBody(body.append("]").toString())));
+
+    // one connection, no request queue: a second batch request would block its caller
+    EventClient client = new EventClient("key", "http://localhost:8089", 1);
+    final AtomicLong created = new AtomicLong();
+    EventSink sink = new EventSink(client, new EventSink.AckListener() {
+      public void onCreated(Event event, String eventId) {
+        created.incrementAndGet();
+      }
+
+      public void onFailure(Event event, int status, String message) {
+      }
+    });
+    sink.onSubscribe(new EventSink.Subscription() {
+      public void request(long n) {
+      }
+
+      public void cancel() {
+      }
+    });
+
+    for (int i = 0; i < 10; i++) {
+      sink.onNext(event("u" + i));
+    }
+    // the first partial batch is sent after lingering, the second one is held back
+    Thread.sleep(300);
+    for (int i = 10; i < 20; i++) {
+      sink.onNext(event("u" + i));
+    }
+    Thread.sleep(300);
+
+    // the client's scheduler is still free while the first request is in flight
+    final CountDownLatch scheduled = new CountDownLatch(1);
+    client.scheduler().execute(new Runnable() {
+      public void run() {
+        scheduled.countDown();
+      }
+    });
+    assertTrue(scheduled.await(200, TimeUnit.MILLISECONDS));
+
+    sink.onComplete();
+    sink.getCompletion().get(5, TimeUnit.SECONDS);
+    client.close();
+
+    assertEquals(20, created.get());
+    verify(2, postRequestedFor(urlMatching("/batch/events.json.*")));
+  }
+
+  private static Event event(String entityId) {
+    return new Event().event("view").entityType("user").entityId(entityId);
+  }
+}
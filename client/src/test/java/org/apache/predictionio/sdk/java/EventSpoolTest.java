@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventSpoolTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testEventsSurviveOutageAndRestart() throws Exception {
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withBody("[{\"status\":201,\"eventId\":\"a\"},{\"status\":201,\"eventId\":\"b\"},"
+                + "{\"status\":201,\"eventId\":\"c\"}]")));
+    File directory = folder.newFolder("spool");
+
+    // nothing listens on this port, so every drain attempt fails
+    EventClient down = new EventClient("key", "http://localhost:1");
+    EventSpool spool = new EventSpool(down, directory, 1024, 20, false);
+    for (int i = 0; i < 3; i++) {
+      // small segments, so the events end up in more than one file
+      spool.append(new Event().event("view").entityType("user").entityId("u" + i)
+          .property("padding", new String(new char[300]).replace('\0', 'x')));
+    }
+    Thread.sleep(100);
+    spool.close();
+    down.close();
+    assertEquals(0, spool.getDrainedCount());
+
+    EventClient up = new EventClient("key", "http://localhost:8089");
+    EventSpool restarted = new EventSpool(up, directory, 1024, 20, false);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (restarted.getDrainedCount() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    restarted.close();
+    up.close();
+
+    assertEquals(3, restarted.getDrainedCount());
+    verify(1, postRequestedFor(urlMatching("/batch/events.json.*"))
+        .withRequestBody(containing("\"u0\"")));
+    verify(1, postRequestedFor(urlMatching("/batch/events.json.*"))
+        .withRequestBody(containing("\"u2\"")));
+  }
+
+  @Test
+  public void testDrainDoesNotBlockTheSchedulerWhenTheQueueIsFull() throws Exception {
+    final SettableFuture<APIResponse> held = SettableFuture.create();
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.setTransport(new Transport() {
+      private boolean first = true;
+
+      public synchronized ListenableFuture<APIResponse> send(HttpRequest request,
+          boolean discardSuccessBody) {
+        if (first) {
+          first = false;
+          return held;
+        }
+        return Futures.immediateFuture(
+            new APIResponse(200, "[{\"status\":201,\"eventId\":\"a\"}]"));
+      }
+
+      public void close() {
+      }
+    });
+
+    // takes the only connection
+    FutureAPIResponse other = client.createEventsAsFuture(Collections.singletonList(
+        new Event().event("view").entityType("user").entityId("u0")));
+    EventSpool spool = new EventSpool(client, folder.newFolder("spool"), 1024, 20, false);
+    spool.append(new Event().event("view").entityType("user").entityId("u1"));
+    Thread.sleep(200);
+
+    client.scheduler().submit(new Runnable() {
+      public void run() {
+      }
+    }).get(500, TimeUnit.MILLISECONDS);
+    assertEquals(0, spool.getDrainedCount());
+
+    held.set(new APIResponse(200, "[{\"status\":201,\"eventId\":\"a\"}]"));
+    assertEquals(200, other.get().getStatus());
+    long deadline = System.currentTimeMillis() + 5000;
+    while (spool.getDrainedCount() < 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(1, spool.getDrainedCount());
+    spool.close();
+    client.close();
+  }
+}
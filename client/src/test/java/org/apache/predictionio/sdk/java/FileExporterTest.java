@@ -20,15 +20,26 @@ package org.apache.predictionio.sdk.java;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import org.joda.time.DateTimeZone;
 import org.joda.time.DateTime;
 import org.junit.Rule;
 import org.junit.Test;
@@ -132,4 +143,134 @@ public class FileExporterTest {
     String empty = reader.readLine();
     assertNull("no more data", empty);
   }
+
+  @Test
+  public void testBufferedMode() throws IOException {
+
+    String pathname = folder.getRoot().getCanonicalPath() + "/testBufferedMode.out";
+
+    // smaller than a single event, so events are split across writes
+    FileExporter exporter = new FileExporter(pathname, 64, FileExporter.SyncPolicy.ON_FLUSH);
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("name", "caf\u00e9 \u2603");
+
+    for (int i = 0; i < 100; i++) {
+      exporter.createEvent("event-" + i, "entity-type", "entity-id-" + i,
+          null, null, properties, null);
+      if (i == 49) {
+        exporter.flush();
+      }
+    }
+    exporter.close();
+
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(pathname), StandardCharsets.UTF_8));
+
+    GsonBuilder gsonBuilder = new GsonBuilder();
+    gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeAdapter());
+    Gson gson = gsonBuilder.create();
+
+    for (int i = 0; i < 100; i++) {
+      Event event = gson.fromJson(reader.readLine(), Event.class);
+      assertEquals("event-" + i, event.getEvent());
+      assertEquals("entity-id-" + i, event.getEntityId());
+      assertEquals("caf\u00e9 \u2603", event.getProperties().get("name"));
+    }
+    assertNull("no more data", reader.readLine());
+  }
+
+  @Test
+  public void testBinaryFormat() throws IOException {
+
+    String root = folder.getRoot().getCanonicalPath();
+    FileExporter binary = new FileExporter(root + "/events.bin", 64,
+        FileExporter.SyncPolicy.NEVER, FileExporter.Format.BINARY);
+    FileExporter json = new FileExporter(root + "/events.json", 64,
+        FileExporter.SyncPolicy.NEVER);
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("count", 5);
+    properties.put("rating", 4.5);
+    properties.put("name", "caf\u00e9 \u2603");
+    properties.put("tags", Arrays.asList("a", "b"));
+    properties.put("price", new BigDecimal("12.3456789012345678901"));
+    properties.put("nested", new HashMap<>(properties));
+    DateTime then = new DateTime("1794-07-27T00:00:00+02:00",
+        DateTimeZone.forOffsetHours(2));
+
+    for (int i = 0; i < 1000; i++) {
+      String target = i % 2 == 0 ? "item-" + (i % 10) : null;
+      binary.createEvent("rate", "user", "user-" + i, target != null ? "item" : null, target,
+          properties, then);
+      json.createEvent("rate", "user", "user-" + i, target != null ? "item" : null, target,
+          properties, then);
+      if (i == 499) {
+        // ends the first block
+        binary.flush();
+      }
+    }
+    binary.createEvent(new Event().event("$set").entityType("user").entityId("u")
+        .eventTime(then));
+    json.createEvent(new Event().event("$set").entityType("user").entityId("u")
+        .eventTime(then));
+    binary.close();
+    json.close();
+
+    byte[] jsonBytes = Files.readAllBytes(Paths.get(root, "events.json"));
+    assertTrue(Files.size(Paths.get(root, "events.bin")) * 5 < jsonBytes.length);
+
+    BinaryEventReader reader = new BinaryEventReader(root + "/events.bin");
+    Event first = reader.read();
+    assertEquals("rate", first.getEvent());
+    assertEquals("user-0", first.getEntityId());
+    assertEquals("item-0", first.getTargetEntityId());
+    assertEquals(then, first.getEventTime());
+    assertEquals(5L, first.getProperties().get("count"));
+    assertEquals(4.5, first.getProperties().get("rating"));
+    assertEquals(Arrays.asList("a", "b"), first.getProperties().get("tags"));
+    Event second = reader.read();
+    assertNull(second.getTargetEntityType());
+    assertNull(second.getTargetEntityId());
+
+    // the rest converts back to exactly what the JSON exporter wrote
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(999, reader.writeJsonLines(out));
+    assertNull(reader.read());
+    reader.close();
+    String expected = new String(jsonBytes, StandardCharsets.UTF_8);
+    expected = expected.substring(expected.indexOf('\n', expected.indexOf('\n') + 1) + 1);
+    assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testBinaryFormatDropsOnlyTheEventThatCannotBeEncoded() throws IOException {
+
+    String pathname = folder.getRoot().getCanonicalPath() + "/rejected.bin";
+    FileExporter exporter = new FileExporter(pathname, 64, FileExporter.SyncPolicy.NEVER,
+        FileExporter.Format.BINARY);
+
+    Map<String, Object> invalid = new LinkedHashMap<>();
+    invalid.put("a", "x");
+    invalid.put("b", true);
+    invalid.put("c", Double.NaN);
+    try {
+      exporter.createEvent("rejected", "user", "u1", null, null, invalid, null);
+      fail("NaN accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Map<String, Object> valid = new HashMap<>();
+    valid.put("b", "y");
+    exporter.createEvent("view", "user", "u2", null, null, valid, null);
+    exporter.close();
+
+    BinaryEventReader reader = new BinaryEventReader(pathname);
+    Event event = reader.read();
+    assertEquals("view", event.getEvent());
+    assertEquals("u2", event.getEntityId());
+    assertEquals(valid, event.getProperties());
+    assertNull(reader.read());
+    reader.close();
+  }
 }
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class OffHeapEventBufferTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testFullBufferRefusesEventsUntilBatchesAreAccepted() throws Exception {
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .inScenario("outage").whenScenarioStateIs(STARTED).willSetStateTo("up")
+        .willReturn(aResponse().withStatus(503)));
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .inScenario("outage").whenScenarioStateIs("up")
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withBody("[{\"status\":201,\"eventId\":\"a\"},{\"status\":400}]")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    // two segments of two events each
+    OffHeapEventBuffer buffer = new OffHeapEventBuffer(client, 2048, 1024, 200, 1);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(buffer.offer(event(i)));
+    }
+    assertFalse(buffer.offer(event(4)));
+    assertEquals(4, buffer.getPendingCount());
+
+    // the batch that met the outage is sent again at the next linger interval
+    long deadline = System.currentTimeMillis() + 5000;
+    while (buffer.getDrainedCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(buffer.offer(event(4)));
+    buffer.close();
+    assertEquals(0, buffer.getPendingCount());
+    assertEquals(3, buffer.getDrainedCount());
+    assertEquals(2, buffer.getRejectedCount());
+    verify(4, postRequestedFor(urlMatching("/batch/events.json.*")));
+    client.close();
+  }
+
+  @Test
+  public void testEventSizeIsCheckedAgainstAnEmptySegment() throws Exception {
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse().withStatus(200).withBody("[{\"status\":201,\"eventId\":\"a\"}]")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    OffHeapEventBuffer buffer = new OffHeapEventBuffer(client, 2048, 1024, 200, 1);
+    try {
+      // one byte too large for the brackets around it
+      buffer.offer(eventOfLength(1023));
+      fail("oversized event accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // exactly fills an empty segment
+    assertTrue(buffer.offer(eventOfLength(1022)));
+    buffer.flush();
+    assertTrue(buffer.offer(eventOfLength(100)));
+    buffer.close();
+    assertEquals(2, buffer.getDrainedCount());
+    verify(2, postRequestedFor(urlMatching("/batch/events.json.*")));
+    client.close();
+  }
+
+  private static Event eventOfLength(int length) {
+    Event event = new Event().event("view").entityType("user").entityId("u")
+        .property("padding", "");
+    int overhead = StreamingEventCodec.getInstance().encode(event).length;
+    return event.property("padding", new String(new char[length - overhead]).replace('\0', 'x'));
+  }
+
+  private static Event event(int i) {
+    return new Event().event("view").entityType("user").entityId("u" + i)
+        .property("padding", new String(new char[400]).replace('\0', 'x'));
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PartitionedEventClientTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  private static final List<String> urls = Arrays.asList("http://localhost:8089/a",
+      "http://localhost:8089/b", "http://localhost:8089/c");
+
+  @Test
+  public void testRoutingIsStableAndRebalancesMinimally() {
+    PartitionedEventClient client = new PartitionedEventClient("key", urls, 1, 0, 5);
+    Map<String, EventClient> before = new HashMap<>();
+    for (int i = 0; i < 300; i++) {
+      before.put("u" + i, client.getClient("user", "u" + i));
+      assertSame(before.get("u" + i), client.getClient("user", "u" + i));
+    }
+
+    EventClient removed = client.getClients().get("http://localhost:8089/c");
+    client.removeEventServer("http://localhost:8089/c");
+    int moved = 0;
+    for (int i = 0; i < 300; i++) {
+      EventClient after = client.getClient("user", "u" + i);
+      if (before.get("u" + i) != removed) {
+        assertSame(before.get("u" + i), after);
+      } else {
+        moved++;
+      }
+    }
+    // roughly a third of the entities lived on the removed server
+    assertTrue(moved > 50 && moved < 150);
+    client.close();
+  }
+
+  @Test
+  public void testCreateEventsKeepsOrder() throws Exception {
+    stubFor(post(urlMatching("/[abc]/batch/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(200)
+            .withBody("[{\"status\":201,\"eventId\":\"x\"},{\"status\":201,\"eventId\":\"x\"},"
+                + "{\"status\":201,\"eventId\":\"x\"},{\"status\":201,\"eventId\":\"x\"}]")));
+
+    PartitionedEventClient client = new PartitionedEventClient("key", urls, 1, 0, 5);
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      events.add(new Event().event("view").entityType("user").entityId("u" + i));
+    }
+    List<String> ids = client.createEvents(events);
+    assertEquals(4, ids.size());
+    for (String id : ids) {
+      assertNotNull(id);
+    }
+    client.close();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testQueryCache() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+
+    EngineClient client = new EngineClient("http://localhost:8089");
+    client.enableQueryCache(60000, 10, 0);
+
+    Map<String, Object> query = new LinkedHashMap<>();
+    query.put("user", "u1");
+    query.put("num", 4);
+    Map<String, Object> reordered = new LinkedHashMap<>();
+    reordered.put("num", 4);
+    reordered.put("user", "u1");
+
+    client.sendQuery(query);
+    assertEquals("{\"itemScores\":[]}", client.sendQuery(reordered).toString());
+    Map<String, Object> other = new HashMap<>();
+    other.put("user", "u2");
+    client.sendQuery(other);
+    client.close();
+
+    verify(2, postRequestedFor(urlEqualTo("/queries.json")));
+    assertEquals(1, client.getQueryCache().getHitCount());
+    assertEquals(2, client.getQueryCache().getMissCount());
+  }
+
+  @Test
+  public void testEntriesExpire() throws Exception {
+    QueryCache cache = new QueryCache(50, 10, 0);
+    cache.put("q", new APIResponse(200, "r"));
+    APIResponse first = cache.get("q");
+    assertEquals("r", first.getMessage());
+    // every caller gets its own copy
+    assertNotSame(first, cache.get("q"));
+
+    Thread.sleep(100);
+    assertNull(cache.get("q"));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.sizeInBytes());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() {
+    QueryCache cache = new QueryCache(60000, 2, 0);
+    cache.put("a", new APIResponse(200, "1"));
+    cache.put("b", new APIResponse(200, "2"));
+    assertNotNull(cache.get("a"));
+    cache.put("c", new APIResponse(200, "3"));
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testSizeLimitEvictsEntries() {
+    // each of these entries weighs 134 bytes
+    QueryCache cache = new QueryCache(60000, 10, 300);
+    cache.put("q1", new APIResponse(200, "a"));
+    cache.put("q2", new APIResponse(200, "b"));
+    assertEquals(268, cache.sizeInBytes());
+    cache.put("q3", new APIResponse(200, "c"));
+
+    assertNull(cache.get("q1"));
+    assertNotNull(cache.get("q2"));
+    assertNotNull(cache.get("q3"));
+    assertEquals(268, cache.sizeInBytes());
+    assertEquals(1, cache.getEvictionCount());
+
+    // a result larger than the whole cache is not cached, and evicts nothing
+    cache.put("q4", new APIResponse(200, new String(new char[200])));
+    assertNull(cache.get("q4"));
+    assertEquals(2, cache.size());
+  }
+}
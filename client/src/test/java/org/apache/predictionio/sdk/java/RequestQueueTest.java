@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RequestQueueTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  private static Event event(String id) {
+    return new Event().event("view").entityType("user").entityId(id);
+  }
+
+  @Test
+  public void testFailFastRejectsWhenQueueIsFull() throws Exception {
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(201)
+            .withBody("{\"eventId\":\"a\"}")
+            .withFixedDelay(300)));
+
+    EventClient client = new EventClient("key", "http://localhost:8089", 1, 1, 5);
+    client.setRejectionPolicy(RejectionPolicy.FAIL_FAST, 0);
+
+    FutureAPIResponse sent = client.createEventAsFuture(event("u1"));
+    FutureAPIResponse queued = client.createEventAsFuture(event("u2"));
+    assertEquals(1, client.getInFlightCount());
+    assertEquals(1, client.getQueueDepth());
+    try {
+      client.createEventAsFuture(event("u3"));
+      fail("expected the third request to be rejected");
+    } catch (RequestRejectedException e) {
+      // expected
+    }
+
+    assertEquals("a", client.createEvent(sent));
+    assertEquals("a", client.createEvent(queued));
+    assertEquals(0, client.getInFlightCount());
+    assertEquals(0, client.getQueueDepth());
+    client.close();
+  }
+
+  @Test
+  public void testDropOldestFailsWaitingRequest() throws Exception {
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(201)
+            .withBody("{\"eventId\":\"a\"}")
+            .withFixedDelay(300)));
+
+    EventClient client = new EventClient("key", "http://localhost:8089", 1, 1, 5);
+    client.setRejectionPolicy(RejectionPolicy.DROP_OLDEST, 0);
+
+    FutureAPIResponse sent = client.createEventAsFuture(event("u1"));
+    FutureAPIResponse dropped = client.createEventAsFuture(event("u2"));
+    FutureAPIResponse queued = client.createEventAsFuture(event("u3"));
+    try {
+      dropped.get();
+      fail("expected the oldest waiting request to be dropped");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RequestRejectedException);
+    }
+
+    assertEquals("a", client.createEvent(sent));
+    assertEquals("a", client.createEvent(queued));
+    client.close();
+  }
+
+  @Test
+  public void testBlockTimesOut() throws Exception {
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(201)
+            .withBody("{\"eventId\":\"a\"}")
+            .withFixedDelay(1000)));
+
+    EventClient client = new EventClient("key", "http://localhost:8089", 1, 0, 5);
+    client.setRejectionPolicy(RejectionPolicy.BLOCK, 100);
+
+    FutureAPIResponse sent = client.createEventAsFuture(event("u1"));
+    long start = System.nanoTime();
+    try {
+      client.createEventAsFuture(event("u2"));
+      fail("expected the blocked request to time out");
+    } catch (RequestRejectedException e) {
+      long waited = System.nanoTime() - start;
+      assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(100));
+      assertTrue(waited < TimeUnit.MILLISECONDS.toNanos(900));
+    }
+    assertEquals("a", client.createEvent(sent));
+    client.close();
+  }
+
+  @Test
+  public void testCallerRunsSendsPastTheLimit() throws Exception {
+    EventClient client = new EventClient("key", "http://localhost:8089", 1, 1, 5);
+    FirstRequestHeld transport = new FirstRequestHeld(client);
+    client.setTransport(transport);
+    client.setRejectionPolicy(RejectionPolicy.CALLER_RUNS, 0);
+
+    FutureAPIResponse held = client.createEventAsFuture(event("u1"));
+    FutureAPIResponse queued = client.createEventAsFuture(event("u2"));
+    assertEquals(1, client.getQueueDepth());
+
+    // the queue is full, so the caller sends this one itself and waits for it
+    FutureAPIResponse ran = client.createEventAsFuture(event("u3"));
+    assertTrue(ran.isDone());
+    assertEquals(2, transport.maxInFlight);
+    assertEquals(1, client.getInFlightCount());
+    assertEquals(1, client.getQueueDepth());
+
+    transport.held.set(new APIResponse(201, "{\"eventId\":\"a\"}"));
+    assertEquals("a", client.createEvent(held));
+    assertEquals("a", client.createEvent(queued));
+    assertEquals(0, client.getInFlightCount());
+    client.close();
+  }
+
+  @Test
+  public void testQueueDrainsWithoutRecursion() throws Exception {
+    EventClient client = new EventClient("key", "http://localhost:8089", 1, 50000, 5);
+    FirstRequestHeld transport = new FirstRequestHeld(client);
+    client.setTransport(transport);
+
+    FutureAPIResponse held = client.createEventAsFuture(event("u0"));
+    List<FutureAPIResponse> queued = new ArrayList<>();
+    for (int i = 1; i <= 20000; i++) {
+      queued.add(client.createEventAsFuture(event("u" + i)));
+    }
+    assertEquals(20000, client.getQueueDepth());
+
+    // every queued request completes as soon as it is sent
+    transport.held.set(new APIResponse(201, "{\"eventId\":\"a\"}"));
+    assertEquals("a", client.createEvent(held));
+    for (FutureAPIResponse response : queued) {
+      assertEquals(201, response.get().getStatus());
+    }
+    assertEquals(0, client.getInFlightCount());
+    assertEquals(0, client.getQueueDepth());
+    client.close();
+  }
+
+  /**
+   * Holds the first request until the test completes it, and answers the others immediately.
+   */
+  private static class FirstRequestHeld implements Transport {
+    final SettableFuture<APIResponse> held = SettableFuture.create();
+    private final BaseClient client;
+    private boolean first = true;
+    volatile int maxInFlight;
+
+    FirstRequestHeld(BaseClient client) {
+      this.client = client;
+    }
+
+    @Override
+    public synchronized ListenableFuture<APIResponse> send(HttpRequest request,
+        boolean discardSuccessBody) {
+      maxInFlight = Math.max(maxInFlight, client.getInFlightCount());
+      if (first) {
+        first = false;
+        return held;
+      }
+      return Futures.immediateFuture(new APIResponse(201, "{\"eventId\":\"a\"}"));
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
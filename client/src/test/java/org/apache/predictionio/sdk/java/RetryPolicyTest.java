@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testQueryIsRetriedAfterServerError() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("flaky")
+        .whenScenarioStateIs(STARTED)
+        .willReturn(aResponse().withStatus(503))
+        .willSetStateTo("recovered"));
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("flaky")
+        .whenScenarioStateIs("recovered")
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+
+    EngineClient client = new EngineClient("http://localhost:8089");
+    client.setRetryPolicy(RetryPolicy.builder().backoff(1, 10).build());
+
+    assertEquals(0, client.sendQuery(Collections.<String, Object>singletonMap("user", "u1"))
+        .getAsJsonArray("itemScores").size());
+    verify(2, postRequestedFor(urlEqualTo("/queries.json")));
+    assertEquals(1, client.getMetrics().getEndpoint("/queries.json").getRetryCount());
+    client.close();
+  }
+
+  @Test
+  public void testEventCreationIsNotRetriedAfterServerError() throws Exception {
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse().withStatus(503)));
+
+    EventClient client = new EventClient("key", "http://localhost:8089");
+    client.setRetryPolicy(RetryPolicy.builder().backoff(1, 10).build());
+
+    assertEquals(503, client.createEventAsFuture(new Event()
+        .event("view").entityType("user").entityId("u1")).get().getStatus());
+    verify(1, postRequestedFor(urlMatching("/events.json.*")));
+    client.close();
+  }
+
+  @Test
+  public void testCircuitBreakerFailsFast() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .willReturn(aResponse().withStatus(500)));
+
+    EngineClient client = new EngineClient("http://localhost:8089");
+    CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+    client.setCircuitBreaker(breaker);
+
+    for (int i = 0; i < 2; i++) {
+      assertEquals(500, client.sendQueryAsFuture(
+          Collections.<String, Object>singletonMap("user", "u1")).get().getStatus());
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    try {
+      client.sendQueryAsFuture(Collections.<String, Object>singletonMap("user", "u1"));
+      fail("expected the open circuit to reject the query");
+    } catch (CircuitOpenException e) {
+      // expected
+    }
+    verify(2, postRequestedFor(urlEqualTo("/queries.json")));
+    client.close();
+  }
+
+  @Test
+  public void testQueryIsRetriedAfterTooManyRequests() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("throttled")
+        .whenScenarioStateIs(STARTED)
+        .willReturn(aResponse().withStatus(429))
+        .willSetStateTo("admitted"));
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("throttled")
+        .whenScenarioStateIs("admitted")
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+
+    EngineClient client = new EngineClient("http://localhost:8089");
+    client.setRetryPolicy(RetryPolicy.builder().maxAttempts(3).backoff(1, 10).build());
+    CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+    client.setCircuitBreaker(breaker);
+
+    assertEquals(200, client.sendQueryAsFuture(
+        Collections.<String, Object>singletonMap("user", "u1")).get().getStatus());
+    verify(2, postRequestedFor(urlEqualTo("/queries.json")));
+    // throttling is not a server failure
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    client.close();
+  }
+
+  @Test
+  public void testCancelledTrialRequestReleasesTheCircuit() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("recovering")
+        .whenScenarioStateIs(STARTED)
+        .willReturn(aResponse().withStatus(500))
+        .willSetStateTo("slow"));
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("recovering")
+        .whenScenarioStateIs("slow")
+        .willReturn(aResponse().withStatus(200).withFixedDelay(1000))
+        .willSetStateTo("up"));
+    stubFor(post(urlEqualTo("/queries.json")).inScenario("recovering")
+        .whenScenarioStateIs("up")
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+
+    EngineClient client = new EngineClient("http://localhost:8089");
+    CircuitBreaker breaker = new CircuitBreaker(1, 0);
+    client.setCircuitBreaker(breaker);
+
+    assertEquals(500, client.sendQueryAsFuture(
+        Collections.<String, Object>singletonMap("user", "u1")).get().getStatus());
+    FutureAPIResponse trial = client.sendQueryAsFuture(
+        Collections.<String, Object>singletonMap("user", "u1"));
+    Thread.sleep(200);
+    assertTrue(trial.cancel(true));
+
+    // the next request becomes the trial instead of failing on a half-open circuit forever
+    assertEquals(200, client.sendQueryAsFuture(
+        Collections.<String, Object>singletonMap("user", "u1")).get().getStatus());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    client.close();
+  }
+
+  @Test
+  public void testRetryWaitingForASlotDoesNotBlockTheScheduler() throws Exception {
+    final SettableFuture<APIResponse> held = SettableFuture.create();
+    final AtomicInteger requests = new AtomicInteger();
+    EngineClient client = new EngineClient("http://localhost:8089");
+    client.setTransport(new Transport() {
+      public ListenableFuture<APIResponse> send(HttpRequest request, boolean discardSuccessBody) {
+        switch (requests.incrementAndGet()) {
+          case 1:
+            return Futures.immediateFuture(new APIResponse(503, ""));
+          case 2:
+            return held;
+          default:
+            return Futures.immediateFuture(new APIResponse(200, "{\"itemScores\":[]}"));
+        }
+      }
+
+      public void close() {
+      }
+    });
+    client.setRetryPolicy(RetryPolicy.builder().backoff(1, 10).build());
+
+    // keep the retry from running until the only connection is taken
+    final CountDownLatch paused = new CountDownLatch(1);
+    client.scheduler().execute(new Runnable() {
+      public void run() {
+        try {
+          paused.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    FutureAPIResponse retried = client.sendQueryAsFuture(
+        Collections.<String, Object>singletonMap("user", "u1"));
+    FutureAPIResponse other = client.sendQueryAsFuture(
+        Collections.<String, Object>singletonMap("user", "u2"));
+    paused.countDown();
+    Thread.sleep(100);
+
+    client.scheduler().submit(new Runnable() {
+      public void run() {
+      }
+    }).get(500, TimeUnit.MILLISECONDS);
+    assertEquals(2, requests.get());
+
+    held.set(new APIResponse(200, "{\"itemScores\":[]}"));
+    assertEquals(200, other.get().getStatus());
+    assertEquals(200, retried.get(5, TimeUnit.SECONDS).getStatus());
+    client.close();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+public class StreamingEventCodecTest {
+
+  private final EventCodec codec = StreamingEventCodec.getInstance();
+
+  private final Gson gson = new GsonBuilder()
+      .registerTypeAdapter(DateTime.class, new DateTimeAdapter())
+      .create();
+
+  private Event sampleEvent() {
+    Map<String, Object> nested = new HashMap<>();
+    nested.put("k", "v");
+    return new Event()
+        .event("rate")
+        .entityType("user")
+        .entityId("u\"1\\\né中😀")
+        .targetEntityType("item")
+        .targetEntityId("i1")
+        .property("rating", 4)
+        .property("score", 0.5)
+        .property("tags", Arrays.asList("a", "b"))
+        .property("flag", true)
+        .property("nested", nested)
+        .property("birthday", new DateTime("1758-05-06T00:00:00+00:00"))
+        .eventTime(new DateTime("1794-07-27T00:00:00+00:00"));
+  }
+
+  @Test
+  public void testMatchesGsonOutput() throws Exception {
+    Event event = sampleEvent();
+    String json = new String(codec.encode(event), StandardCharsets.UTF_8);
+    JsonParser parser = new JsonParser();
+    assertEquals(parser.parse(gson.toJson(event)), parser.parse(json));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Event event = sampleEvent();
+    byte[] json = codec.encode(event);
+    Event decoded = codec.decode(json, 0, json.length);
+
+    assertEquals(event.getEvent(), decoded.getEvent());
+    assertEquals(event.getEntityType(), decoded.getEntityType());
+    assertEquals(event.getEntityId(), decoded.getEntityId());
+    assertEquals(event.getTargetEntityType(), decoded.getTargetEntityType());
+    assertEquals(event.getTargetEntityId(), decoded.getTargetEntityId());
+    assertEquals(event.getEventTime().getMillis(), decoded.getEventTime().getMillis());
+    assertEquals(4.0, decoded.getProperties().get("rating"));
+    assertEquals(0.5, decoded.getProperties().get("score"));
+    assertEquals(Arrays.asList("a", "b"), decoded.getProperties().get("tags"));
+    assertEquals(true, decoded.getProperties().get("flag"));
+    assertEquals("v", ((Map<?, ?>) decoded.getProperties().get("nested")).get("k"));
+    assertEquals(event.getProperties().get("birthday"),
+        new DateTime(decoded.getProperties().get("birthday")));
+  }
+
+  @Test
+  public void testOptionalFieldsAndServerFields() throws Exception {
+    Event decoded = codec.decode("{\"eventId\":\"abc\",\"event\":\"view\","
+        + "\"entityType\":\"user\",\"entityId\":\"u1\",\"targetEntityType\":null,"
+        + "\"creationTime\":\"2014-09-09T00:00:00Z\"}");
+    assertEquals("view", decoded.getEvent());
+    assertNull(decoded.getTargetEntityType());
+    assertNull(decoded.getEventTime());
+    assertTrue(decoded.getProperties().isEmpty());
+  }
+
+  @Test
+  public void testBatchEncoding() throws Exception {
+    List<Event> events = Arrays.asList(sampleEvent(), new Event().event("a").entityType("b")
+        .entityId("c"));
+    String json = new String(codec.encode(events), StandardCharsets.UTF_8);
+    JsonParser parser = new JsonParser();
+    assertEquals(parser.parse(gson.toJson(events)), parser.parse(json));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.predictionio.sdk.java;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TransportTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8089);
+
+  @Test
+  public void testUrlConnectionTransport() throws Exception {
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse()
+            .withStatus(201)
+            .withHeader("Content-Type", "application/json; charset=UTF-8")
+            .withBody("{\"eventId\":\"é1\"}")));
+    stubFor(post(urlMatching("/batch/events.json.*"))
+        .willReturn(aResponse().withStatus(400).withBody("{\"message\":\"bad\"}")));
+    stubFor(get(urlMatching("/events/missing.json.*"))
+        .willReturn(aResponse().withStatus(404).withBody("{\"message\":\"not found\"}")));
+
+    EventClient client = new EventClient("key", "http://localhost:8089", 2);
+    client.setTransport(new UrlConnectionTransport(2, 5000));
+    Event event = new Event().event("view").entityType("user").entityId("u1");
+
+    assertEquals("é1", client.createEvent(event));
+    try {
+      client.getEvent("missing");
+      fail("expected an APIException");
+    } catch (APIException e) {
+      assertEquals(404, e.getStatus());
+    }
+    try {
+      client.createEvents(Collections.singletonList(event));
+      fail("expected an APIException");
+    } catch (APIException e) {
+      assertEquals("{\"message\":\"bad\"}", e.getResponseMessage());
+    }
+    client.setDiscardResponseBodies(true);
+    assertNull(client.createEvent(event));
+    assertEquals(2, client.getMetrics().getEndpoint("/events.json").getRequestCount());
+    client.close();
+
+    verify(2, postRequestedFor(urlEqualTo("/events.json?accessKey=key"))
+        .withHeader("Content-Type", equalTo("application/json")));
+  }
+
+  @Test
+  public void testSharedTransport() throws Exception {
+    stubFor(post(urlEqualTo("/queries.json"))
+        .willReturn(aResponse().withStatus(200).withBody("{\"itemScores\":[]}")));
+    stubFor(post(urlMatching("/events.json.*"))
+        .willReturn(aResponse().withStatus(201).withBody("{\"eventId\":\"a\"}")));
+
+    // one IO thread serves the connections of both clients
+    SharedTransport shared = new SharedTransport(new AsyncHttpTransport(8, 1, 5000));
+    EngineClient engineClient = new EngineClient("http://localhost:8089", 8);
+    EventClient eventClient = new EventClient("key", "http://localhost:8089", 8);
+    engineClient.setTransport(shared.acquire());
+    eventClient.setTransport(shared.acquire());
+
+    List<FutureAPIResponse> queries = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      queries.add(engineClient.sendQueryAsFuture(Collections.<String, Object>emptyMap()));
+    }
+    for (FutureAPIResponse query : queries) {
+      assertEquals(200, query.get().getStatus());
+    }
+
+    engineClient.close();
+    assertEquals("a", eventClient.createEvent(new Event()
+        .event("view").entityType("user").entityId("u1")));
+    eventClient.close();
+    try {
+      shared.acquire();
+      fail("expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // closed with the last handle
+    }
+  }
+
+  @Test
+  public void testInMemoryTransport() throws Exception {
+    EngineClient client = new EngineClient("http://engine");
+    InMemoryTransport transport = new InMemoryTransport(new InMemoryTransport.Handler() {
+      public APIResponse handle(HttpRequest request) throws IOException {
+        if (!request.getUrl().equals("http://engine/queries.json")) {
+          throw new IOException("unexpected URL " + request.getUrl());
+        }
+        // echo the query back
+        return new APIResponse(200, request.getBody(), StandardCharsets.UTF_8);
+      }
+    });
+    client.setTransport(transport);
+
+    List<String> items = Arrays.asList("i1", "i2");
+    assertEquals("{\"items\":[\"i1\",\"i2\"]}",
+        client.sendQuery(Collections.<String, Object>singletonMap("items", items)).toString());
+    assertEquals(1, transport.getRequestCount());
+    try {
+      client.setTransport(transport);
+      fail("expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // already in use
+    }
+    client.close();
+  }
+}